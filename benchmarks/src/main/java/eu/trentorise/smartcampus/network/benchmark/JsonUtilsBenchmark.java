@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.trentorise.smartcampus.network.JsonUtils;
+import eu.trentorise.smartcampus.network.benchmark.Payloads.Event;
+
+/**
+ * {@link JsonUtils} conversions on lists of 1, 100 and 10000 events
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonUtilsBenchmark {
+
+	@Param({ "1", "100", "10000" })
+	public int size;
+
+	private List<Event> events;
+	private String eventsJSON;
+	private String eventJSON;
+	private byte[] eventBytes;
+	private Map<String, Object> eventMap;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() {
+		events = Payloads.events(size);
+		eventsJSON = JsonUtils.toJSON(events);
+		eventJSON = JsonUtils.toJSON(events.get(0));
+		eventBytes = JsonUtils.toJSONBytes(events.get(0));
+		eventMap = JsonUtils.toObject(eventJSON, Map.class);
+	}
+
+	@Benchmark
+	public String toJSON() {
+		return JsonUtils.toJSON(events);
+	}
+
+	@Benchmark
+	public byte[] toJSONBytes() {
+		return JsonUtils.toJSONBytes(events);
+	}
+
+	@Benchmark
+	public Event toObject() {
+		return JsonUtils.toObject(eventJSON, Event.class);
+	}
+
+	@Benchmark
+	public Event toObjectBytes() {
+		return JsonUtils.toObject(eventBytes, Event.class);
+	}
+
+	@Benchmark
+	public List<Event> toObjectList() {
+		return JsonUtils.toObjectList(eventsJSON, Event.class);
+	}
+
+	@Benchmark
+	public Event convert() {
+		return JsonUtils.convert(eventMap, Event.class);
+	}
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network.benchmark;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query string and URL normalization as implemented by RemoteConnector 2.0.1, 
+ * kept as baseline for {@link URLBuilderBenchmark}
+ */
+public class LegacyURL {
+
+	public static String normalizeURL(String uriString) throws Exception {
+		URL url = new URL(uriString);
+		URI uri = new URI(url.getProtocol(), url.getUserInfo(), url.getHost(), url.getPort(), url.getPath(), url.getQuery(), url.getRef());
+		return uri.toURL().toString();
+	}
+
+	public static String generateQueryString(Map<String, Object> parameters) {
+		String queryString = "?";
+		if (parameters != null) {
+			for (String param : parameters.keySet()) {
+				Object value = parameters.get(param);
+				if (value == null) {
+					if (queryString.length() > 1) {
+						queryString += "&";
+					}
+					queryString += param + "=";
+				} else if (value instanceof List) {
+					for (Object v : ((List<?>) value)) {
+						if (queryString.length() > 1) {
+							queryString += "&";
+						}
+						queryString += param + "=" + encodeValue(v.toString());
+					}
+				} else {
+					if (queryString.length() > 1) {
+						queryString += "&";
+					}
+					queryString += param + "=" + encodeValue(value.toString());
+				}
+
+			}
+		}
+		return queryString.length() > 1 ? queryString : "";
+	}
+
+	private static String encodeValue(String value) {
+		try {
+			return URLEncoder.encode(value, "utf8");
+		} catch (UnsupportedEncodingException e) {
+			return value;
+		}
+	}
+}
@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import eu.trentorise.smartcampus.network.HedgePolicy;
+import eu.trentorise.smartcampus.network.JsonUtils;
+import eu.trentorise.smartcampus.network.LatencyHistogram;
+import eu.trentorise.smartcampus.network.RemoteCallStats;
+import eu.trentorise.smartcampus.network.RemoteConnector;
+import eu.trentorise.smartcampus.network.RemoteConnector.CLIENT_TYPE;
+
+/**
+ * Load test of {@link RemoteConnector} against a local {@link StubServer}, runnable offline.
+ * A number of threads call the server in a closed loop for a given time; every second the
+ * throughput and latency of the last interval are printed together with the open sockets,
+ * the connections kept in the pool and the used heap, and a summary is printed at the end.
+ * <p>
+ * Options are given as <code>name=value</code> arguments:
+ * <ul>
+ * <li><code>scheme</code>: http or https (default http)</li>
+ * <li><code>method</code>: get or post (default get)</li>
+ * <li><code>concurrency</code>: number of calling threads (default 16)</li>
+ * <li><code>warmup</code>, <code>duration</code>: in seconds (default 3 and 10)</li>
+ * <li><code>events</code>: number of events in the GET responses (default 10)</li>
+ * <li><code>latency</code>: server latency in ms, fixed or as <code>min-max</code> (default 0)</li>
+ * <li><code>slow</code>: slow tail of the server as <code>rate@ms</code>, e.g. 0.01@500</li>
+ * <li><code>errors</code>: failures of the server as <code>rate@status</code>, e.g. 0.05@503</li>
+ * <li><code>serverThreads</code>: threads of the server (default twice the concurrency)</li>
+ * <li><code>connections</code>: max pooled connections per route (default the concurrency)</li>
+ * <li><code>callTimeout</code>: max total time of each call in ms (default 0, no limit)</li>
+ * <li><code>hedge</code>: percentile of the response times after which GETs are hedged (default none)</li>
+ * </ul>
+ */
+public class LoadTest {
+
+	private static final String TOKEN = "load-test-token";
+
+	private final Map<String, String> options;
+	private final AtomicReference<LatencyHistogram> interval = new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+	private final LatencyHistogram total = new LatencyHistogram();
+	private final AtomicLong intervalErrors = new AtomicLong();
+	private final ConcurrentHashMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+	private final RemoteCallStats stats = new RemoteCallStats();
+	private volatile boolean measuring;
+	private volatile boolean running = true;
+
+	public LoadTest(Map<String, String> options) {
+		this.options = options;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq <= 0) {
+				System.err.println("Usage: LoadTest [name=value]... (see the class documentation for the options)");
+				System.exit(1);
+			}
+			options.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+		new LoadTest(options).run();
+		System.exit(0);
+	}
+
+	public void run() throws Exception {
+		int concurrency = intOption("concurrency", 16);
+		int warmup = intOption("warmup", 3);
+		int duration = intOption("duration", 10);
+		boolean secure = "https".equals(option("scheme", "http"));
+		final boolean post = "post".equals(option("method", "get"));
+
+		StubProfile profile = StubProfile.events(intOption("events", 10));
+		String latency = option("latency", "0");
+		int dash = latency.indexOf('-');
+		profile.setLatency(Integer.parseInt(latency.substring(0, dash < 0 ? latency.length() : dash)), 
+				Integer.parseInt(latency.substring(dash + 1)));
+		if (options.containsKey("slow")) {
+			String[] slow = option("slow", null).split("@");
+			profile.setSlowTail(Double.parseDouble(slow[0]), Integer.parseInt(slow[1]));
+		}
+		if (options.containsKey("errors")) {
+			String[] failures = option("errors", null).split("@");
+			profile.setErrors(Double.parseDouble(failures[0]), failures.length > 1 ? Integer.parseInt(failures[1]) : 503);
+		}
+
+		RemoteConnector.setClientType(CLIENT_TYPE.CLIENT_ACCEPTALL);
+		RemoteConnector.HTTP_MAX_CONNECTIONS_PER_ROUTE = intOption("connections", concurrency);
+		RemoteConnector.HTTP_MAX_TOTAL_CONNECTIONS = Math.max(RemoteConnector.HTTP_MAX_TOTAL_CONNECTIONS, RemoteConnector.HTTP_MAX_CONNECTIONS_PER_ROUTE);
+		RemoteConnector.setCallListener(stats);
+		RemoteConnector.HTTP_CALL_TIMEOUT_MS = intOption("callTimeout", 0);
+		HedgePolicy hedging = options.containsKey("hedge") ? new HedgePolicy(Double.parseDouble(option("hedge", null))) : null;
+		RemoteConnector.setHedgePolicy(hedging);
+		StubServer server = new StubServer(secure, profile, intOption("serverThreads", 2 * concurrency));
+		final String host = server.getHost();
+		final String body = JsonUtils.toJSON(Payloads.event(0));
+		System.out.println("Load test of " + host + " with " + concurrency + " threads, " + (post ? "POST" : "GET") + " " + profile);
+
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < concurrency; i++) {
+			Thread worker = new Thread("load-" + i) {
+				@Override
+				public void run() {
+					while (running) {
+						long start = System.nanoTime();
+						try {
+							if (post) {
+								RemoteConnector.postJSON(host, "/events", body, TOKEN);
+							} else {
+								RemoteConnector.getJSON(host, "/events", TOKEN);
+							}
+							long elapsed = System.nanoTime() - start;
+							interval.get().record(elapsed);
+							if (measuring) {
+								total.record(elapsed);
+							}
+						} catch (Exception e) {
+							failed(e);
+						}
+					}
+				}
+			};
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+
+		long gcCount = 0, gcTime = 0;
+		long maxSockets = 0, maxHeap = 0;
+		try {
+			for (int second = -warmup; second < duration; second++) {
+				if (second == 0) {
+					stats.reset();
+					gcCount = gcCount();
+					gcTime = gcTime();
+					measuring = true;
+				}
+				Thread.sleep(1000);
+				LatencyHistogram last = interval.getAndSet(new LatencyHistogram());
+				long failures = intervalErrors.getAndSet(0);
+				long sockets = openSockets();
+				long heap = usedHeap();
+				if (measuring) {
+					maxSockets = Math.max(maxSockets, sockets);
+					maxHeap = Math.max(maxHeap, heap);
+				}
+				System.out.println((second < 0 ? "warmup t=" + (second + warmup + 1) : "t=" + (second + 1)) + "s calls/s=" + last.getCount() 
+						+ " errors/s=" + failures + " p50=" + last.getPercentile(50) + "us p99=" + last.getPercentile(99) 
+						+ "us sockets=" + sockets + " pooled=" + pooledConnections() + " heap=" + (heap >> 20) + "MB");
+			}
+		} finally {
+			running = false;
+			for (Thread worker : workers) {
+				worker.join(5000);
+			}
+			RemoteConnector.shutdown();
+			server.stop();
+		}
+
+		long failures = 0;
+		for (AtomicLong count : errors.values()) {
+			failures += count.get();
+		}
+		System.out.println("Summary: " + duration + "s, " + total.getCount() + " calls, " + (total.getCount() / Math.max(1, duration)) 
+				+ " calls/s, " + failures + " errors");
+		System.out.println("  latency " + total + " p99.9=" + total.getPercentile(99.9) + "us");
+		if (!errors.isEmpty()) {
+			System.out.println("  errors " + new TreeMap<String, AtomicLong>(errors));
+		}
+		if (hedging != null) {
+			System.out.println("  hedges=" + hedging.getHedgeCount() + " won=" + hedging.getWinCount() + " budgetExhausted=" 
+					+ hedging.getBudgetExhaustedCount());
+		}
+		System.out.println("  max sockets=" + maxSockets + " max heap=" + (maxHeap >> 20) + "MB gc=" + (gcCount() - gcCount) 
+				+ " collections in " + (gcTime() - gcTime) + "ms");
+	}
+
+	private void failed(Exception e) {
+		intervalErrors.incrementAndGet();
+		if (!measuring) {
+			return;
+		}
+		String type = e.getClass().getSimpleName();
+		AtomicLong count = errors.get(type);
+		if (count == null) {
+			errors.putIfAbsent(type, new AtomicLong());
+			count = errors.get(type);
+		}
+		count.incrementAndGet();
+	}
+
+	private int pooledConnections() {
+		int pooled = 0;
+		for (String host : stats.getHosts()) {
+			pooled = Math.max(pooled, stats.getStats(host).getPooledConnections());
+		}
+		return pooled;
+	}
+
+	/**
+	 * @return the sockets open by the process, client and server side, or -1 if the 
+	 * platform does not expose them
+	 */
+	private static long openSockets() {
+		File[] fds = new File("/proc/self/fd").listFiles();
+		if (fds == null) {
+			return -1;
+		}
+		long sockets = 0;
+		for (File fd : fds) {
+			try {
+				if (Files.readSymbolicLink(fd.toPath()).toString().startsWith("socket:")) {
+					sockets++;
+				}
+			} catch (IOException e) {
+				// closed meanwhile
+			}
+		}
+		return sockets;
+	}
+
+	private static long usedHeap() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+
+	private String option(String name, String defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	private int intOption(String name, int defaultValue) {
+		return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+	}
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import eu.trentorise.smartcampus.network.JsonUtils;
+
+/**
+ * Realistic payloads for the benchmarks, shaped like the SmartCampus event objects
+ */
+public class Payloads {
+
+	public static class Event {
+		public String id;
+		public String title;
+		public String description;
+		public String creatorId;
+		public long fromTime;
+		public long toTime;
+		public double[] location;
+		public List<String> tags;
+		public boolean publicEvent;
+		public int attendees;
+	}
+
+	public static Event event(int i) {
+		Event e = new Event();
+		e.id = "event-" + i;
+		e.title = "Seminar number " + i;
+		e.description = "Description of the event number " + i + ", held in the university campus. Everybody is welcome.";
+		e.creatorId = "user-" + (i % 97);
+		e.fromTime = 1356998400000L + i * 3600000L;
+		e.toTime = e.fromTime + 7200000L;
+		e.location = new double[] { 46.0667 + i * 0.0001, 11.1167 + i * 0.0001 };
+		e.tags = Arrays.asList("university", "seminar", "tag" + (i % 10));
+		e.publicEvent = i % 2 == 0;
+		e.attendees = i % 150;
+		return e;
+	}
+
+	public static List<Event> events(int count) {
+		List<Event> list = new ArrayList<Event>(count);
+		for (int i = 0; i < count; i++) {
+			list.add(event(i));
+		}
+		return list;
+	}
+
+	public static String eventsJSON(int count) {
+		return JsonUtils.toJSON(events(count));
+	}
+}
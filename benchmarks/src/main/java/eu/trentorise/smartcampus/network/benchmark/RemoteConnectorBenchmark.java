@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.type.TypeReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.trentorise.smartcampus.network.JsonUtils;
+import eu.trentorise.smartcampus.network.RemoteConnector;
+import eu.trentorise.smartcampus.network.RemoteConnector.CLIENT_TYPE;
+import eu.trentorise.smartcampus.network.benchmark.Payloads.Event;
+
+/**
+ * Full {@link RemoteConnector} round trips against a local {@link StubServer}, 
+ * over plain HTTP and TLS. Run with <code>-t</code> to measure concurrent callers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RemoteConnectorBenchmark {
+
+	private static final String TOKEN = "benchmark-token";
+	private static final TypeReference<List<Event>> EVENTS = new TypeReference<List<Event>>() {};
+
+	@Param({ "http", "https" })
+	public String scheme;
+
+	@Param({ "1", "100" })
+	public int size;
+
+	private StubServer server;
+	private String host;
+	private String body;
+
+	@Setup
+	public void setup() throws Exception {
+		RemoteConnector.setClientType(CLIENT_TYPE.CLIENT_ACCEPTALL);
+		server = new StubServer("https".equals(scheme), Payloads.eventsJSON(size), 16);
+		host = server.getHost();
+		body = JsonUtils.toJSON(Payloads.event(0));
+	}
+
+	@TearDown
+	public void tearDown() {
+		RemoteConnector.shutdown();
+		server.stop();
+	}
+
+	@Benchmark
+	public String getJSON() throws Exception {
+		return RemoteConnector.getJSON(host, "/events", TOKEN);
+	}
+
+	@Benchmark
+	public List<Event> getJSONAndParse() throws Exception {
+		return JsonUtils.toObjectList(RemoteConnector.getJSON(host, "/events", TOKEN), Event.class);
+	}
+
+	@Benchmark
+	public List<Event> getJSONTyped() throws Exception {
+		return RemoteConnector.getJSON(host, "/events", TOKEN, null, EVENTS);
+	}
+
+	@Benchmark
+	public String postJSON() throws Exception {
+		return RemoteConnector.postJSON(host, "/events", body, TOKEN);
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network.benchmark;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Behaviour of the {@link StubServer}: latency of the responses, with an optional slow tail,
+ * share of failed responses and body of the GET requests. Setters return the profile itself,
+ * so that a profile can be written as a single expression; a profile can be replaced while the
+ * server is running, to script a sequence of conditions.
+ */
+public class StubProfile {
+
+	private byte[] payload;
+	private int minLatencyMs;
+	private int maxLatencyMs;
+	private double slowRate;
+	private int slowLatencyMs;
+	private double errorRate;
+	private int errorStatus = 503;
+
+	/**
+	 * @param payload response body of the GET requests
+	 */
+	public StubProfile(String payload) {
+		setPayload(payload);
+	}
+
+	/**
+	 * @param count number of events in the response body of the GET requests
+	 * @return a profile answering immediately and without errors
+	 */
+	public static StubProfile events(int count) {
+		return new StubProfile(Payloads.eventsJSON(count));
+	}
+
+	public StubProfile setPayload(String payload) {
+		try {
+			this.payload = payload.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return this;
+	}
+
+	/**
+	 * Responses are delayed by a uniformly distributed time between the two bounds
+	 * @param minMs
+	 * @param maxMs
+	 */
+	public StubProfile setLatency(int minMs, int maxMs) {
+		this.minLatencyMs = minMs;
+		this.maxLatencyMs = Math.max(minMs, maxMs);
+		return this;
+	}
+
+	/**
+	 * The given share of the responses is delayed by a fixed, usually much longer time 
+	 * @param rate between 0 and 1
+	 * @param latencyMs
+	 */
+	public StubProfile setSlowTail(double rate, int latencyMs) {
+		this.slowRate = rate;
+		this.slowLatencyMs = latencyMs;
+		return this;
+	}
+
+	/**
+	 * The given share of the requests is answered with an error status and a small JSON body
+	 * @param rate between 0 and 1
+	 * @param status HTTP status of the failed responses
+	 */
+	public StubProfile setErrors(double rate, int status) {
+		this.errorRate = rate;
+		this.errorStatus = status;
+		return this;
+	}
+
+	public int getPayloadSize() {
+		return payload.length;
+	}
+
+	byte[] getPayload() {
+		return payload;
+	}
+
+	/**
+	 * @return the delay of the next response, in milliseconds
+	 */
+	int nextLatency() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (slowRate > 0 && random.nextDouble() < slowRate) {
+			return slowLatencyMs;
+		}
+		return maxLatencyMs > minLatencyMs ? minLatencyMs + random.nextInt(maxLatencyMs - minLatencyMs + 1) : minLatencyMs;
+	}
+
+	/**
+	 * @return the error status of the next response, or 0 if it should succeed
+	 */
+	int nextError() {
+		return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate ? errorStatus : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "payload=" + payload.length + "B latency=" + minLatencyMs + "-" + maxLatencyMs + "ms slow=" + slowRate 
+				+ "@" + slowLatencyMs + "ms errors=" + errorRate + "@" + errorStatus;
+	}
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * Embedded HTTP or HTTPS server answering every GET with a fixed JSON payload and every
+ * other request with a small JSON object, after reading the request body. Latency, errors and
+ * payload are driven by a {@link StubProfile}, which can be replaced at runtime. The HTTPS server 
+ * uses a self-signed certificate, so clients must use 
+ * {@link eu.trentorise.smartcampus.network.RemoteConnector.CLIENT_TYPE#CLIENT_ACCEPTALL}.
+ */
+public class StubServer {
+
+	private static final String KEYSTORE = "/stub-server.jks";
+	private static final char[] KEYSTORE_PASSWORD = "changeit".toCharArray();
+
+	static {
+		// the server writes headers and body separately: without TCP_NODELAY each response waits for a delayed ACK
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final boolean secure;
+	private volatile StubProfile profile;
+
+	/**
+	 * Start the server on a free local port, answering immediately and without errors
+	 * @param secure true for HTTPS
+	 * @param payload response body of the GET requests
+	 * @param threads number of threads serving the requests
+	 * @throws Exception
+	 */
+	public StubServer(boolean secure, String payload, int threads) throws Exception {
+		this(secure, new StubProfile(payload), threads);
+	}
+
+	/**
+	 * Start the server on a free local port
+	 * @param secure true for HTTPS
+	 * @param profile latency, errors and payload of the responses
+	 * @param threads number of threads serving the requests: delayed responses hold a thread
+	 * @throws Exception
+	 */
+	public StubServer(boolean secure, StubProfile profile, int threads) throws Exception {
+		this.secure = secure;
+		this.profile = profile;
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", 0);
+		if (secure) {
+			HttpsServer https = HttpsServer.create(address, 1024);
+			https.setHttpsConfigurator(new HttpsConfigurator(createSSLContext()));
+			server = https;
+		} else {
+			server = HttpServer.create(address, 1024);
+		}
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext("/", new ProfileHandler());
+		server.start();
+	}
+
+	/**
+	 * @return the base URL of the server, to be used as host of the calls
+	 */
+	public String getHost() {
+		return (secure ? "https" : "http") + "://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public StubProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @param profile applied to the requests received from now on
+	 */
+	public void setProfile(StubProfile profile) {
+		this.profile = profile;
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private static SSLContext createSSLContext() throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		InputStream in = StubServer.class.getResourceAsStream(KEYSTORE);
+		try {
+			keyStore.load(in, KEYSTORE_PASSWORD);
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(keyStore, KEYSTORE_PASSWORD);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(kmf.getKeyManagers(), null, null);
+		return context;
+	}
+
+	private class ProfileHandler implements HttpHandler {
+		private final byte[] ACK = "{\"result\":true}".getBytes();
+		private final byte[] ERROR = "{\"error\":\"stub failure\"}".getBytes();
+
+		public void handle(HttpExchange exchange) throws IOException {
+			drain(exchange.getRequestBody());
+			StubProfile current = profile;
+			int latency = current.nextLatency();
+			if (latency > 0) {
+				try {
+					Thread.sleep(latency);
+				} catch (InterruptedException e) {
+					exchange.close();
+					return;
+				}
+			}
+			int error = current.nextError();
+			byte[] body = error != 0 ? ERROR : "GET".equals(exchange.getRequestMethod()) ? current.getPayload() : ACK;
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(error != 0 ? error : 200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+
+		private void drain(InputStream in) throws IOException {
+			byte[] buffer = new byte[8192];
+			while (in.read(buffer) >= 0) {
+				// discard
+			}
+			in.close();
+		}
+	}
+}
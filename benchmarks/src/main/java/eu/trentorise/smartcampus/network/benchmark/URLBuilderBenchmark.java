@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network.benchmark;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.trentorise.smartcampus.network.URLBuilder;
+
+/**
+ * {@link URLBuilder} compared with the string concatenation of {@link LegacyURL},
+ * with list parameters of 1, 10 and 1000 values
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class URLBuilderBenchmark {
+
+	private static final String HOST = "https://vas.smartcampuslab.it";
+	private static final String SERVICE = "/core.mobility/getroadinfo/agency 5";
+
+	@Param({ "1", "10", "1000" })
+	public int values;
+
+	private Map<String, Object> parameters;
+
+	@Setup
+	public void setup() {
+		List<String> ids = new ArrayList<String>(values);
+		for (int i = 0; i < values; i++) {
+			ids.add(i % 3 == 0 ? "stop " + i : "stop_" + i);
+		}
+		parameters = new LinkedHashMap<String, Object>();
+		parameters.put("from", 1356998400000L);
+		parameters.put("to", 1357084800000L);
+		parameters.put("id", ids);
+	}
+
+	@Benchmark
+	public String legacyQueryString() {
+		return LegacyURL.generateQueryString(parameters);
+	}
+
+	@Benchmark
+	public String queryString() {
+		return URLBuilder.queryString(parameters);
+	}
+
+	@Benchmark
+	public String legacyRequestURL() throws Exception {
+		return LegacyURL.normalizeURL(HOST + SERVICE) + LegacyURL.generateQueryString(parameters);
+	}
+
+	@Benchmark
+	public URI requestURI() throws Exception {
+		return URLBuilder.build(HOST, SERVICE, parameters);
+	}
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+/**
+ * Access token returned by a {@link TokenProvider}, with its expiration time.
+ */
+public class AccessToken {
+
+	private final String token;
+	private final long expiresAt;
+
+	/**
+	 * @param token
+	 * @param expiresAt expiration time (in ms since the epoch), 0 if the token does not expire
+	 */
+	public AccessToken(String token, long expiresAt) {
+		this.token = token;
+		this.expiresAt = expiresAt;
+	}
+
+	/**
+	 * @param token
+	 * @param expiresIn validity of the token, in seconds as in the OAuth2 <code>expires_in</code> field
+	 * @return
+	 */
+	public static AccessToken expiringIn(String token, long expiresIn) {
+		return new AccessToken(token, System.currentTimeMillis() + expiresIn * 1000);
+	}
+
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * @return expiration time (in ms since the epoch), 0 if the token does not expire
+	 */
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	/**
+	 * @param margin time (in ms) before the actual expiration
+	 * @return true if the token expires within the margin
+	 */
+	public boolean isExpiring(long margin) {
+		return expiresAt > 0 && System.currentTimeMillis() + margin >= expiresAt;
+	}
+}
@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.codehaus.jackson.type.TypeReference;
+
+import eu.trentorise.smartcampus.network.RemoteFuture.RemoteCall;
+
+/**
+ * Asynchronous variant of the {@link RemoteConnector} calls. The calls are executed
+ * on a bounded pool of threads sharing the {@link RemoteConnector} connection pool;
+ * the calls submitted while all the threads are busy wait in an unbounded queue 
+ * (see {@link #setExecutor(ExecutorService)} to bound it).
+ * Cancelling the returned {@link RemoteFuture} aborts the HTTP request in progress.
+ */
+public class AsyncRemoteConnector {
+
+	/** Number of threads executing the asynchronous calls in the default executor */
+	public static volatile int ASYNC_POOL_SIZE = 20;
+
+	private static ExecutorService executor = null;
+
+	private static ScheduledExecutorService scheduler = null;
+
+	/**
+	 * Set the executor running the asynchronous calls. The default executor is
+	 * a pool of {@link #ASYNC_POOL_SIZE} daemon threads.
+	 * @param executorService
+	 */
+	public static synchronized void setExecutor(ExecutorService executorService) {
+		executor = executorService;
+	}
+
+	/**
+	 * Run each asynchronous call on its own virtual thread, if supported by the JVM (Java 21 or later).
+	 * The connection pool waits on {@link java.util.concurrent.locks.Lock}s rather than monitors, 
+	 * so waiting for a pooled connection does not pin the carrier thread.
+	 * @return true if virtual threads are used, false if the JVM does not support them
+	 */
+	public static boolean useVirtualThreads() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			setExecutor((ExecutorService) factory.invoke(null));
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	protected static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(ASYNC_POOL_SIZE, ASYNC_POOL_SIZE, 
+					60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("RemoteConnector-async-"));
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		return executor;
+	}
+
+	/**
+	 * @return the daemon thread running the deadline and hedging timers
+	 */
+	static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("RemoteConnector-timer-"));
+			try {
+				// most timers are cancelled long before they expire: drop them at once where supported (Java 7 or later)
+				ScheduledThreadPoolExecutor.class.getMethod("setRemoveOnCancelPolicy", boolean.class).invoke(timer, true);
+			} catch (Exception e) {
+				// cancelled timers are removed when they expire
+			}
+			scheduler = timer;
+		}
+		return scheduler;
+	}
+
+	public static RemoteFuture<String> getJSONAsync(String host, String service, String token) {
+		return getJSONAsync(host, service, token, null);
+	}
+
+	public static RemoteFuture<String> getJSONAsync(final String host, final String service, 
+			final String token, final Map<String, Object> parameters) {
+		return submit(new RemoteCall<String>() {
+			protected HttpUriRequest createRequest() throws RemoteException {
+				return RemoteConnector.createGet(host, service, token, parameters);
+			}
+			protected String execute(HttpUriRequest request) throws RemoteException {
+				return RemoteConnector.getJSON((HttpGet) request);
+			}
+		});
+	}
+
+	public static <T> RemoteFuture<T> getJSONAsync(final String host, final String service, 
+			final String token, final Map<String, Object> parameters, final Class<T> cls) {
+		return submit(new RemoteCall<T>() {
+			protected HttpUriRequest createRequest() throws RemoteException {
+				return RemoteConnector.createGet(host, service, token, parameters);
+			}
+			protected T execute(HttpUriRequest request) throws RemoteException {
+				return RemoteConnector.readObject(request, cls);
+			}
+		});
+	}
+
+	public static <T> RemoteFuture<T> getJSONAsync(final String host, final String service, 
+			final String token, final Map<String, Object> parameters, final TypeReference<T> type) {
+		return submit(new RemoteCall<T>() {
+			protected HttpUriRequest createRequest() throws RemoteException {
+				return RemoteConnector.createGet(host, service, token, parameters);
+			}
+			protected T execute(HttpUriRequest request) throws RemoteException {
+				return RemoteConnector.readObject(request, type);
+			}
+		});
+	}
+
+	public static RemoteFuture<String> postJSONAsync(String host, String service, String body, String token) {
+		return postJSONAsync(host, service, body, token, null);
+	}
+
+	public static RemoteFuture<String> postJSONAsync(final String host, final String service, 
+			final String body, final String token, final Map<String, Object> parameters) {
+		return submit(new RemoteCall<String>() {
+			protected HttpUriRequest createRequest() throws RemoteException {
+				return RemoteConnector.createPost(host, service, body, token, parameters);
+			}
+			protected String execute(HttpUriRequest request) throws RemoteException {
+				return RemoteConnector.postJSON((HttpPost) request);
+			}
+		});
+	}
+
+	public static <T> RemoteFuture<T> postJSONAsync(final String host, final String service, 
+			final String body, final String token, final Map<String, Object> parameters, final Class<T> cls) {
+		return submit(new RemoteCall<T>() {
+			protected HttpUriRequest createRequest() throws RemoteException {
+				return RemoteConnector.createPost(host, service, body, token, parameters);
+			}
+			protected T execute(HttpUriRequest request) throws RemoteException {
+				return RemoteConnector.readObject(request, cls);
+			}
+		});
+	}
+
+	public static RemoteFuture<String> putJSONAsync(String host, String service, String body, String token) {
+		return putJSONAsync(host, service, body, token, null);
+	}
+
+	public static RemoteFuture<String> putJSONAsync(final String host, final String service, 
+			final String body, final String token, final Map<String, Object> parameters) {
+		return submit(new RemoteCall<String>() {
+			protected HttpUriRequest createRequest() throws RemoteException {
+				return RemoteConnector.createPut(host, service, body, token, parameters);
+			}
+			protected String execute(HttpUriRequest request) throws RemoteException {
+				return RemoteConnector.putJSON((HttpPut) request);
+			}
+		});
+	}
+
+	public static <T> RemoteFuture<T> putJSONAsync(final String host, final String service, 
+			final String body, final String token, final Map<String, Object> parameters, final Class<T> cls) {
+		return submit(new RemoteCall<T>() {
+			protected HttpUriRequest createRequest() throws RemoteException {
+				return RemoteConnector.createPut(host, service, body, token, parameters);
+			}
+			protected T execute(HttpUriRequest request) throws RemoteException {
+				return RemoteConnector.readObject(request, cls);
+			}
+		});
+	}
+
+	public static RemoteFuture<String> deleteJSONAsync(String host, String service, String token) {
+		return deleteJSONAsync(host, service, token, null);
+	}
+
+	public static RemoteFuture<String> deleteJSONAsync(final String host, final String service, 
+			final String token, final Map<String, Object> parameters) {
+		return submit(new RemoteCall<String>() {
+			protected HttpUriRequest createRequest() throws RemoteException {
+				return RemoteConnector.createDelete(host, service, token, parameters);
+			}
+			protected String execute(HttpUriRequest request) throws RemoteException {
+				return RemoteConnector.deleteJSON((HttpDelete) request);
+			}
+		});
+	}
+
+	/**
+	 * Execute the calls concurrently and wait for all of them to complete.
+	 * The calls are bound to the {@link Deadline} of the current thread, if any.
+	 * @param calls
+	 * @return the outcome of each call, in the order of the calls
+	 */
+	public static <T> List<RemoteResult<T>> invokeAll(List<? extends Callable<T>> calls) {
+		try {
+			return toResults(getExecutor().invokeAll(bind(calls, Deadline.current())));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return interrupted(calls.size(), e);
+		}
+	}
+
+	/**
+	 * Execute the calls concurrently and wait for all of them to complete or for the timeout
+	 * to expire. The calls run within a {@link Deadline} of the timeout: the requests
+	 * in progress when it expires are aborted, and the calls not started are cancelled.
+	 * @param calls
+	 * @param timeout
+	 * @param unit
+	 * @return the outcome of each call, in the order of the calls
+	 */
+	public static <T> List<RemoteResult<T>> invokeAll(List<? extends Callable<T>> calls, long timeout, TimeUnit unit) {
+		Deadline deadline = Deadline.start(unit.toMillis(timeout));
+		try {
+			return toResults(getExecutor().invokeAll(bind(calls, deadline), timeout, unit));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return interrupted(calls.size(), e);
+		} finally {
+			deadline.end();
+		}
+	}
+
+	/**
+	 * @return the calls, run within the deadline if not null
+	 */
+	private static <T> List<? extends Callable<T>> bind(List<? extends Callable<T>> calls, final Deadline deadline) {
+		if (deadline == null) {
+			return calls;
+		}
+		List<Callable<T>> bound = new ArrayList<Callable<T>>(calls.size());
+		for (final Callable<T> call : calls) {
+			bound.add(new Callable<T>() {
+				public T call() throws Exception {
+					Deadline previous = Deadline.attach(deadline);
+					try {
+						return call.call();
+					} finally {
+						Deadline.restore(previous);
+					}
+				}
+			});
+		}
+		return bound;
+	}
+
+	private static <T> List<RemoteResult<T>> toResults(List<Future<T>> futures) throws InterruptedException {
+		List<RemoteResult<T>> results = new ArrayList<RemoteResult<T>>(futures.size());
+		for (Future<T> future : futures) {
+			try {
+				results.add(RemoteResult.success(future.get()));
+			} catch (CancellationException e) {
+				results.add(RemoteResult.<T>failure(new RemoteException("Call timed out", e)));
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RemoteException || cause instanceof SecurityException) {
+					results.add(RemoteResult.<T>failure((Exception) cause));
+				} else {
+					results.add(RemoteResult.<T>failure(new RemoteException(cause)));
+				}
+			}
+		}
+		return results;
+	}
+
+	private static <T> List<RemoteResult<T>> interrupted(int size, InterruptedException e) {
+		List<RemoteResult<T>> results = new ArrayList<RemoteResult<T>>(size);
+		for (int i = 0; i < size; i++) {
+			results.add(RemoteResult.<T>failure(new RemoteException(e.getMessage(), e)));
+		}
+		return results;
+	}
+
+	private static <T> RemoteFuture<T> submit(RemoteCall<T> call) {
+		RemoteFuture<T> future = new RemoteFuture<T>(call);
+		getExecutor().execute(future);
+		return future;
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+		private final String prefix;
+
+		public DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
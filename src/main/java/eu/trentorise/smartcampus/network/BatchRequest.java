@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.util.Map;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Descriptor of a single call of a {@link RemoteBatch}.
+ */
+public class BatchRequest {
+
+	public enum Method {GET, POST, PUT, DELETE}
+
+	private final Method method;
+	private final String service;
+	private final String body;
+	private final Map<String, Object> parameters;
+
+	public BatchRequest(Method method, String service, String body, Map<String, Object> parameters) {
+		this.method = method;
+		this.service = service;
+		this.body = body;
+		this.parameters = parameters;
+	}
+
+	public static BatchRequest get(String service, Map<String, Object> parameters) {
+		return new BatchRequest(Method.GET, service, null, parameters);
+	}
+
+	public static BatchRequest post(String service, String body, Map<String, Object> parameters) {
+		return new BatchRequest(Method.POST, service, body, parameters);
+	}
+
+	public static BatchRequest put(String service, String body, Map<String, Object> parameters) {
+		return new BatchRequest(Method.PUT, service, body, parameters);
+	}
+
+	public static BatchRequest delete(String service, Map<String, Object> parameters) {
+		return new BatchRequest(Method.DELETE, service, null, parameters);
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public String getService() {
+		return service;
+	}
+
+	public String getBody() {
+		return body;
+	}
+
+	public Map<String, Object> getParameters() {
+		return parameters;
+	}
+
+	HttpUriRequest createRequest(RemoteClient client, String host, String token) throws RemoteException {
+		switch (method) {
+		case POST:
+			return client.createPost(host, service, body, token, parameters);
+		case PUT:
+			return client.createPut(host, service, body, token, parameters);
+		case DELETE:
+			return client.createDelete(host, service, token, parameters);
+		default:
+			return client.createGet(host, service, token, parameters);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + service;
+	}
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent {@link RemoteConnector} calls to each host, so that a slow
+ * host cannot hold all the calling threads. The calls exceeding the limit wait in a bounded queue
+ * for a free slot and fail with {@link BulkheadFullException} if the queue is full or the wait 
+ * times out.
+ * <p>
+ * In adaptive mode the limit of each host follows its latency: while at least half of it is in use,
+ * it grows by one every <i>limit</i> calls completed in time, and it is reduced by 10% when a call 
+ * fails or the average latency exceeds <i>tolerance</i> times the lowest latency recently observed.
+ * <p>
+ * Enable it with {@link RemoteConnector#setBulkhead(Bulkhead)}.
+ */
+public class Bulkhead {
+
+	/** samples after which the lowest latency is measured again */
+	private static final int MIN_LATENCY_WINDOW = 1000;
+
+	private final int maxConcurrent;
+	private final int maxQueued;
+	private final long maxWait;
+
+	private boolean adaptive = false;
+	private int minLimit;
+	private int maxLimit;
+	private double tolerance;
+
+	private final ConcurrentMap<String, HostLimit> hosts = new ConcurrentHashMap<String, HostLimit>();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param maxConcurrent max concurrent calls to a single host (initial limit in adaptive mode)
+	 * @param maxQueued max calls waiting for a free slot of a single host
+	 * @param maxWait max time (in ms) a call waits for a free slot
+	 */
+	public Bulkhead(int maxConcurrent, int maxQueued, long maxWait) {
+		this.maxConcurrent = maxConcurrent;
+		this.maxQueued = maxQueued;
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * Adapt the limit of each host to its latency, for the hosts contacted from now on.
+	 * @param minLimit lowest limit
+	 * @param maxLimit highest limit
+	 * @param tolerance ratio to the lowest latency over which a call is considered slow, e.g. 2.0
+	 */
+	public void setAdaptive(int minLimit, int maxLimit, double tolerance) {
+		this.adaptive = true;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param host host, including the port if specified
+	 * @return current limit of concurrent calls to the host, -1 if not called yet
+	 */
+	public int getLimit(String host) {
+		HostLimit limit = hosts.get(host);
+		return limit == null ? -1 : limit.getLimit();
+	}
+
+	/**
+	 * @param host host, including the port if specified
+	 * @return number of calls to the host in progress
+	 */
+	public int getInFlight(String host) {
+		HostLimit limit = hosts.get(host);
+		return limit == null ? 0 : limit.getInFlight();
+	}
+
+	/**
+	 * @return number of calls rejected
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Wait for a free slot of the host
+	 * @param host
+	 * @param deadline deadline of the call, shortening the wait if needed, null if none
+	 * @return the limit of the host, to release once the call is completed
+	 * @throws BulkheadFullException if no slot is available
+	 * @throws RemoteException if interrupted while waiting
+	 */
+	HostLimit acquire(String host, Deadline deadline) throws RemoteException {
+		HostLimit limit = hosts.get(host);
+		if (limit == null) {
+			limit = adaptive ? new HostLimit(maxConcurrent, minLimit, maxLimit, tolerance) 
+							 : new HostLimit(maxConcurrent, maxConcurrent, maxConcurrent, 0);
+			HostLimit existing = hosts.putIfAbsent(host, limit);
+			if (existing != null) {
+				limit = existing;
+			}
+		}
+		boolean acquired;
+		try {
+			acquired = limit.acquire(maxQueued, deadline == null ? maxWait : Math.min(maxWait, deadline.getRemaining()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException(e.getMessage(), e);
+		}
+		if (!acquired) {
+			rejected.incrementAndGet();
+			throw new BulkheadFullException(host);
+		}
+		return limit;
+	}
+
+	/**
+	 * Concurrency limit of a single host. Waiting uses a {@link ReentrantLock} rather than a monitor,
+	 * so that virtual threads waiting for a slot do not pin their carrier thread.
+	 */
+	static class HostLimit {
+		private final int minLimit;
+		private final int maxLimit;
+		private final double tolerance;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition released = lock.newCondition();
+
+		private double limit;
+		private int inFlight = 0;
+		private int waiting = 0;
+		private long minLatency = Long.MAX_VALUE;
+		private double avgLatency = 0;
+		private int samples = 0;
+
+		HostLimit(int initial, int minLimit, int maxLimit, double tolerance) {
+			this.limit = initial;
+			this.minLimit = minLimit;
+			this.maxLimit = maxLimit;
+			this.tolerance = tolerance;
+		}
+
+		int getLimit() {
+			lock.lock();
+			try {
+				return (int) limit;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int getInFlight() {
+			lock.lock();
+			try {
+				return inFlight;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		boolean acquire(int maxQueued, long maxWait) throws InterruptedException {
+			lock.lock();
+			try {
+				if (inFlight < (int) limit) {
+					inFlight++;
+					return true;
+				}
+				if (waiting >= maxQueued) {
+					return false;
+				}
+				waiting++;
+				try {
+					long remaining = TimeUnit.MILLISECONDS.toNanos(maxWait);
+					while (inFlight >= (int) limit) {
+						if (remaining <= 0) {
+							return false;
+						}
+						remaining = released.awaitNanos(remaining);
+					}
+					inFlight++;
+					return true;
+				} finally {
+					waiting--;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @param latency duration of the call, in nanoseconds
+		 * @param failed true if the call failed because of the host
+		 */
+		void release(long latency, boolean failed) {
+			lock.lock();
+			try {
+				inFlight--;
+				if (tolerance > 0) {
+					adapt(latency, failed);
+				}
+				if (waiting > 0) {
+					released.signalAll();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void adapt(long latency, boolean failed) {
+			if (++samples > MIN_LATENCY_WINDOW) {
+				samples = 0;
+				minLatency = Long.MAX_VALUE;
+			}
+			if (!failed && latency < minLatency) {
+				minLatency = latency;
+			}
+			avgLatency = avgLatency == 0 ? latency : avgLatency * 0.9 + latency * 0.1;
+			if (failed || avgLatency > minLatency * tolerance) {
+				limit = Math.max(minLimit, limit * 0.9);
+			} else if (inFlight + 1 >= limit / 2) {
+				limit = Math.min(maxLimit, limit + 1 / limit);
+			}
+		}
+	}
+}
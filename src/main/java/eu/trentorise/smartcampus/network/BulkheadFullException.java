@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+/**
+ * Thrown without calling the remote host, because the max number of concurrent calls 
+ * to the host has been reached and no slot became free in time.
+ */
+public class BulkheadFullException extends RemoteException {
+
+	private static final long serialVersionUID = 5712083829381620431L;
+
+	public BulkheadFullException(String host) {
+		super("Too many concurrent calls to host " + host);
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return RemoteConnector.HTTP_ERROR_STACK_TRACES ? super.fillInStackTrace() : this;
+	}
+}
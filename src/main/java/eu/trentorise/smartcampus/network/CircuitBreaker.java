@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker of a single host. After a number of consecutive failures the circuit 
+ * opens and the calls fail immediately; once the open time has elapsed a single probe call 
+ * is let through, closing the circuit if it succeeds or opening it again if it fails.
+ * While the circuit is closed, checking and recording successes only read volatile fields.
+ */
+public class CircuitBreaker {
+
+	public enum State {CLOSED, OPEN, HALF_OPEN}
+
+	private final int failureThreshold;
+	private final long openTime;
+
+	private final AtomicInteger failures = new AtomicInteger();
+	/** time the circuit was opened, 0 if closed */
+	private final AtomicLong openedAt = new AtomicLong();
+	/** thread performing the probe call, null if none */
+	private final AtomicReference<Thread> probing = new AtomicReference<Thread>();
+
+	/**
+	 * @param failureThreshold number of consecutive failures opening the circuit
+	 * @param openTime time (in ms) the circuit stays open before letting a probe call through
+	 */
+	public CircuitBreaker(int failureThreshold, long openTime) {
+		this.failureThreshold = failureThreshold;
+		this.openTime = openTime;
+	}
+
+	public State getState() {
+		long opened = openedAt.get();
+		if (opened == 0) {
+			return State.CLOSED;
+		}
+		return probing.get() != null || System.currentTimeMillis() - opened >= openTime ? State.HALF_OPEN : State.OPEN;
+	}
+
+	/**
+	 * @return number of consecutive failures
+	 */
+	public int getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * @return true if the call can be performed. If the call is the probe of a half-open circuit,
+	 * the current thread must end it with {@link #onSuccess()}, {@link #onFailure()} or {@link #release()}
+	 */
+	boolean allowRequest() {
+		long opened = openedAt.get();
+		if (opened == 0) {
+			return true;
+		}
+		if (System.currentTimeMillis() - opened < openTime) {
+			return false;
+		}
+		return probing.compareAndSet(null, Thread.currentThread());
+	}
+
+	void onSuccess() {
+		if (failures.get() != 0 || openedAt.get() != 0) {
+			failures.set(0);
+			openedAt.set(0);
+			probing.set(null);
+		}
+	}
+
+	void onFailure() {
+		int count = failures.incrementAndGet();
+		if (probing.get() != null) {
+			openedAt.set(System.currentTimeMillis());
+			probing.set(null);
+		} else if (count >= failureThreshold) {
+			openedAt.compareAndSet(0, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * End the probe call of the current thread, if any, without an outcome, 
+	 * so that the next call can probe the host. 
+	 */
+	void release() {
+		probing.compareAndSet(Thread.currentThread(), null);
+	}
+}
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+/**
+ * Thrown without calling the remote host, because its circuit breaker is open
+ * after too many consecutive failures.
+ */
+public class CircuitOpenException extends RemoteException {
+
+	private static final long serialVersionUID = -4373604869529937473L;
+
+	public CircuitOpenException(String host) {
+		super("Circuit open for host " + host);
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return RemoteConnector.HTTP_ERROR_STACK_TRACES ? super.fillInStackTrace() : this;
+	}
+}
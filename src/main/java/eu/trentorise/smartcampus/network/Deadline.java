@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+
+package eu.trentorise.smartcampus.network;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Time limit of the calls performed by the current thread. A deadline bounds each call as a whole:
+ * the wait for a pooled connection, connect and TLS handshake, the response read and the retries.
+ * Deadlines are started around one or more calls and ended in a finally block:
+ * <pre>
+ * Deadline deadline = Deadline.start(800);
+ * try {
+ *     ...
+ * } finally {
+ *     deadline.end();
+ * }
+ * </pre>
+ * A nested deadline cannot extend the enclosing one. A call still in progress when the deadline
+ * expires is aborted and fails with {@link DeadlineExceededException}.
+ */
+public class Deadline {
+
+	/** Request parameter carrying the deadline of the call */
+	static final String PARAM = "eu.trentorise.smartcampus.deadline";
+
+	private static final ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+
+	private final long expiry;
+	private final Deadline previous;
+
+	private Deadline(long timeout, Deadline previous) {
+		long expiry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		this.expiry = previous != null && previous.expiry - expiry < 0 ? previous.expiry : expiry;
+		this.previous = previous;
+	}
+
+	/**
+	 * Start a deadline for the calls performed by the current thread, until {@link #end()} is called
+	 * @param timeout time (in ms) the calls must complete within
+	 * @return the deadline
+	 */
+	public static Deadline start(long timeout) {
+		Deadline deadline = new Deadline(timeout, current.get());
+		current.set(deadline);
+		return deadline;
+	}
+
+	/**
+	 * Stop applying the deadline to the calls of the current thread, restoring the enclosing one if any
+	 */
+	public void end() {
+		if (previous == null) {
+			current.remove();
+		} else {
+			current.set(previous);
+		}
+	}
+
+	/**
+	 * @return the deadline of the current thread, null if none
+	 */
+	public static Deadline current() {
+		return current.get();
+	}
+
+	/**
+	 * @return time (in ms) left before the deadline expires, 0 if expired
+	 */
+	public long getRemaining() {
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiry - System.nanoTime()));
+	}
+
+	public boolean isExpired() {
+		return expiry - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * Apply a deadline captured on another thread to the calls of the current thread
+	 * @param deadline null for no deadline
+	 * @return the deadline replaced, to {@link #restore(Deadline)} once done
+	 */
+	static Deadline attach(Deadline deadline) {
+		Deadline previous = current.get();
+		restore(deadline);
+		return previous;
+	}
+
+	/**
+	 * @param deadline the deadline returned by {@link #attach(Deadline)}
+	 */
+	static void restore(Deadline deadline) {
+		if (deadline == null) {
+			current.remove();
+		} else {
+			current.set(deadline);
+		}
+	}
+
+	/**
+	 * @return the deadline expiring first, null if both are null
+	 */
+	static Deadline earliest(Deadline d1, Deadline d2) {
+		if (d1 == null || d2 == null) {
+			return d1 == null ? d2 : d1;
+		}
+		return d1.expiry - d2.expiry <= 0 ? d1 : d2;
+	}
+
+	/**
+	 * @param callTimeout max time (in ms) of a single call, 0 for no limit
+	 * @return the deadline of a call starting now: the one of the current thread, shortened 
+	 * to the call timeout if positive, or null if the call has no time limit
+	 */
+	static Deadline forCall(long callTimeout) {
+		Deadline deadline = current.get();
+		if (callTimeout <= 0 || (deadline != null && deadline.getRemaining() <= callTimeout)) {
+			return deadline;
+		}
+		return new Deadline(callTimeout, null);
+	}
+
+	/**
+	 * @param timeout a connect, read or pool timeout, in ms, 0 for no limit
+	 * @return the timeout shortened to the time left, rounded up so that it does not end 
+	 * before the deadline, at least 1 ms since 0 means no limit
+	 */
+	int clamp(int timeout) {
+		long remaining = Math.max(1, (expiry - System.nanoTime() + 999999) / 1000000);
+		return timeout <= 0 || timeout > remaining ? (int) Math.min(Integer.MAX_VALUE, remaining) : timeout;
+	}
+
+	/**
+	 * @param request
+	 * @return the task aborting the request when the deadline expires, to cancel once the call completes
+	 */
+	Future<?> abortOnExpiry(final HttpUriRequest request) {
+		return AsyncRemoteConnector.getScheduler().schedule(new Runnable() {
+			public void run() {
+				request.abort();
+			}
+		}, expiry - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+}
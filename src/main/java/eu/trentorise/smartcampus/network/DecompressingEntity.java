@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Response entity decompressing a gzip or deflate encoded body while it is read
+ */
+class DecompressingEntity extends HttpEntityWrapper implements ConnectionReleaseTrigger {
+
+	private final boolean gzip;
+
+	/**
+	 * @param entity
+	 * @return the decompressing entity if the entity is gzip or deflate encoded, the entity itself otherwise
+	 */
+	static HttpEntity wrap(HttpEntity entity) {
+		Header encoding = entity.getContentEncoding();
+		if (encoding == null) {
+			return entity;
+		}
+		String value = encoding.getValue().trim().toLowerCase();
+		if ("gzip".equals(value) || "x-gzip".equals(value)) {
+			return new DecompressingEntity(entity, true);
+		}
+		if ("deflate".equals(value)) {
+			return new DecompressingEntity(entity, false);
+		}
+		return entity;
+	}
+
+	private DecompressingEntity(HttpEntity entity, boolean gzip) {
+		super(entity);
+		this.gzip = gzip;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		InputStream in = wrappedEntity.getContent();
+		if (gzip) {
+			return new GZIPInputStream(in);
+		}
+		// deflate may be sent with or without the zlib header
+		PushbackInputStream pushback = new PushbackInputStream(in, 2);
+		byte[] header = new byte[2];
+		int n = pushback.read(header);
+		if (n <= 0) {
+			return pushback;
+		}
+		pushback.unread(header, 0, n);
+		boolean zlib = n == 2 && (header[0] & 0x0F) == 8 && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+		return new InflaterInputStream(pushback, new Inflater(!zlib));
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		InputStream in = getContent();
+		try {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	public void releaseConnection() throws IOException {
+		RemoteConnector.releaseConnection(wrappedEntity);
+	}
+
+	public void abortConnection() throws IOException {
+		RemoteConnector.abortConnection(wrappedEntity);
+	}
+
+	@Override
+	public Header getContentEncoding() {
+		return null;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+}
@@ -0,0 +1,398 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import eu.trentorise.smartcampus.network.ResponseCache.CachedResponse;
+
+/**
+ * Persistent tier of a {@link ResponseCache}, keeping the cached responses across restarts 
+ * in an append-only file. Only the index of the responses is kept in memory: the bodies are 
+ * read from the file when requested. When the file exceeds its max size it is compacted in background, 
+ * keeping the most recently stored responses up to half of the size.
+ * <p>
+ * The responses of authorized calls are stored under a hash of their credentials, that are never
+ * written to the file: they are found again only by calls with the same credentials, so the responses
+ * stored with a token are not used once it is refreshed.
+ * <p>
+ * Attach it with {@link ResponseCache#setDiskStore(DiskCacheStore)}.
+ */
+public class DiskCacheStore {
+
+	private static final int MAGIC = 0x53435243;
+
+	private final File file;
+	private final long maxSize;
+	private RandomAccessFile data;
+	private final Map<String, Entry> index = new HashMap<String, Entry>();
+	private long sequence = 0;
+	private boolean compacting = false;
+	private boolean closed = false;
+
+	/**
+	 * Open the store, loading the index of the responses already in the file.
+	 * @param file
+	 * @param maxSize max size (in bytes) of the file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public DiskCacheStore(File file, long maxSize) throws IOException {
+		this.file = file;
+		this.maxSize = maxSize;
+		File old = aside();
+		if (!file.exists() && old.exists()) {
+			// interrupted while replacing the file with the compacted one
+			old.renameTo(file);
+		}
+		old.delete();
+		compacted().delete();
+		this.data = new RandomAccessFile(file, "rw");
+		load();
+	}
+
+	/**
+	 * @return number of stored responses
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return current size (in bytes) of the file
+	 */
+	public synchronized long getFileSize() throws IOException {
+		return data.length();
+	}
+
+	/**
+	 * Close the file. The responses stored afterwards are not persisted.
+	 */
+	public synchronized void close() throws IOException {
+		closed = true;
+		data.close();
+		index.clear();
+	}
+
+	synchronized CachedResponse get(String key) {
+		Entry entry = index.get(key);
+		if (entry == null) {
+			return null;
+		}
+		try {
+			byte[] body = new byte[entry.length];
+			data.seek(entry.offset);
+			data.readFully(body);
+			CachedResponse cached = new CachedResponse();
+			cached.body = new String(body, "UTF-8");
+			cached.expires = entry.expires;
+			cached.etag = entry.etag;
+			cached.lastModified = entry.lastModified;
+			return cached;
+		} catch (IOException e) {
+			index.remove(key);
+			return null;
+		}
+	}
+
+	synchronized void put(String key, CachedResponse cached) {
+		try {
+			append(key, cached);
+			if (data.length() > maxSize && !compacting) {
+				scheduleCompaction();
+			}
+		} catch (IOException e) {
+			// the response is still cached in memory
+		}
+	}
+
+	private void scheduleCompaction() {
+		compacting = true;
+		try {
+			AsyncRemoteConnector.getExecutor().execute(new Runnable() {
+				public void run() {
+					try {
+						compact();
+					} catch (IOException e) {
+						// compacted again when the next response is stored
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			compacting = false;
+		}
+	}
+
+	synchronized void remove(String key) {
+		if (index.containsKey(key)) {
+			try {
+				append(key, null);
+			} catch (IOException e) {
+				index.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Append the record of the response, or a removal record if null.
+	 */
+	private void append(String key, CachedResponse cached) throws IOException {
+		byte[] body = cached == null ? null : cached.body.getBytes("UTF-8");
+		byte[] header = cached == null ? header(key, 0, null, null, -1) 
+				: header(key, cached.expires, cached.etag, cached.lastModified, body.length);
+		if (header == null) {
+			return;
+		}
+		long offset = data.length();
+		data.seek(offset);
+		data.write(header);
+		if (body == null) {
+			index.remove(key);
+		} else {
+			data.write(body);
+			index.put(key, new Entry(offset + header.length, body.length, cached, sequence++));
+		}
+	}
+
+	/**
+	 * @return the record header, null if the key or the validators are too long to be stored
+	 */
+	private static byte[] header(String key, long expires, String etag, String lastModified, int length) 
+			throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buffer);
+		try {
+			out.writeUTF(key);
+			out.writeLong(expires);
+			out.writeUTF(etag == null ? "" : etag);
+			out.writeUTF(lastModified == null ? "" : lastModified);
+			out.writeInt(length);
+		} catch (UTFDataFormatException e) {
+			return null;
+		}
+		return buffer.toByteArray();
+	}
+
+	private void load() throws IOException {
+		if (data.length() == 0) {
+			data.writeInt(MAGIC);
+			return;
+		}
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a response cache file: " + file);
+		}
+		data.setLength(readRecords(data, index));
+	}
+
+	/**
+	 * Read the records from the current position of the file to its end, adding them to the index
+	 * @return the end of the last complete record
+	 */
+	private long readRecords(RandomAccessFile in, Map<String, Entry> index) throws IOException {
+		long end = in.getFilePointer();
+		try {
+			while (end < in.length()) {
+				String key = in.readUTF();
+				long expires = in.readLong();
+				String etag = in.readUTF();
+				String lastModified = in.readUTF();
+				int length = in.readInt();
+				if (length < 0) {
+					index.remove(key);
+				} else {
+					long offset = in.getFilePointer();
+					if (offset + length > in.length()) {
+						break;
+					}
+					in.seek(offset + length);
+					index.put(key, new Entry(offset, length, expires, etag.length() == 0 ? null : etag, 
+							lastModified.length() == 0 ? null : lastModified, sequence++));
+				}
+				end = in.getFilePointer();
+			}
+		} catch (IOException e) {
+			// truncated record written while closing, or corrupted one: the records after it are lost
+		}
+		return end;
+	}
+
+	/**
+	 * Rewrite the file with the most recent responses only. The responses are copied 
+	 * to a new file without locking the store, that is locked only to copy the records
+	 * appended meanwhile and to replace the file.
+	 */
+	void compact() throws IOException {
+		List<Map.Entry<String, Entry>> entries;
+		long end;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			compacting = true;
+			entries = new ArrayList<Map.Entry<String, Entry>>(index.entrySet());
+			end = data.length();
+		}
+		File tmp = compacted();
+		RandomAccessFile source = null;
+		RandomAccessFile target = null;
+		boolean again = false;
+		try {
+			Collections.sort(entries, new Comparator<Map.Entry<String, Entry>>() {
+				public int compare(Map.Entry<String, Entry> e1, Map.Entry<String, Entry> e2) {
+					return e1.getValue().sequence > e2.getValue().sequence ? -1 
+							: e1.getValue().sequence < e2.getValue().sequence ? 1 : 0;
+				}
+			});
+			int kept = 0;
+			long size = 0;
+			for (Map.Entry<String, Entry> entry : entries) {
+				size += entry.getValue().length + entry.getKey().length() + 64;
+				if (size > maxSize / 2) {
+					break;
+				}
+				kept++;
+			}
+
+			// the records before the end are never modified: read them without locking
+			source = new RandomAccessFile(file, "r");
+			target = new RandomAccessFile(tmp, "rw");
+			target.setLength(0);
+			target.writeInt(MAGIC);
+			Map<String, Entry> compacted = new HashMap<String, Entry>();
+			for (int i = kept - 1; i >= 0; i--) {
+				String key = entries.get(i).getKey();
+				Entry entry = entries.get(i).getValue();
+				byte[] body = new byte[entry.length];
+				source.seek(entry.offset);
+				source.readFully(body);
+				byte[] header = header(key, entry.expires, entry.etag, entry.lastModified, entry.length);
+				target.write(header);
+				compacted.put(key, new Entry(target.getFilePointer(), entry.length, entry.expires, 
+						entry.etag, entry.lastModified, entry.sequence));
+				target.write(body);
+			}
+
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				long tail = target.getFilePointer();
+				byte[] buffer = new byte[64 * 1024];
+				data.seek(end);
+				for (int n; (n = data.read(buffer)) > 0;) {
+					target.write(buffer, 0, n);
+				}
+				target.seek(tail);
+				readRecords(target, compacted);
+				target.close();
+				target = null;
+				source.close();
+				source = null;
+
+				data.close();
+				boolean replaced = replace(tmp);
+				data = new RandomAccessFile(file, "rw");
+				if (replaced) {
+					index.clear();
+					index.putAll(compacted);
+				}
+				if (data.length() == 0) {
+					index.clear();
+					data.writeInt(MAGIC);
+				}
+				// the records appended meanwhile may exceed the max size again
+				again = replaced && data.length() > maxSize;
+			}
+		} finally {
+			if (source != null) {
+				source.close();
+			}
+			if (target != null) {
+				target.close();
+			}
+			tmp.delete();
+			synchronized (this) {
+				compacting = false;
+				if (again && !closed) {
+					scheduleCompaction();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replace the file with the compacted one, renaming it over the file if the platform allows it,
+	 * otherwise moving the file aside until the compacted one is in place.
+	 * @return false if the file has not been replaced
+	 */
+	private boolean replace(File compacted) {
+		if (compacted.renameTo(file)) {
+			return true;
+		}
+		File old = aside();
+		old.delete();
+		if (!file.renameTo(old)) {
+			return false;
+		}
+		if (compacted.renameTo(file)) {
+			old.delete();
+			return true;
+		}
+		old.renameTo(file);
+		return false;
+	}
+
+	private File compacted() {
+		return new File(file.getPath() + ".tmp");
+	}
+
+	private File aside() {
+		return new File(file.getPath() + ".old");
+	}
+
+	private static class Entry {
+		final long offset;
+		final int length;
+		final long expires;
+		final String etag;
+		final String lastModified;
+		final long sequence;
+
+		Entry(long offset, int length, long expires, String etag, String lastModified, long sequence) {
+			this.offset = offset;
+			this.length = length;
+			this.expires = expires;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.sequence = sequence;
+		}
+
+		Entry(long offset, int length, CachedResponse cached, long sequence) {
+			this(offset, length, cached.expires, cached.etag, cached.lastModified, sequence);
+		}
+	}
+}
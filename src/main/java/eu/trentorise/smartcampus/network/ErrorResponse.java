@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Error response of a remote call. At most {@link RemoteConnector#HTTP_ERROR_BODY_MAX} bytes of the 
+ * body are kept, decoded only when requested.
+ */
+class ErrorResponse {
+
+	final int status;
+	final String statusLine;
+	final String host;
+	final Header[] headers;
+	private final byte[] body;
+	private final String charset;
+	private String text;
+
+	private ErrorResponse(HttpUriRequest request, HttpResponse resp, byte[] body, String charset) {
+		this.status = resp.getStatusLine().getStatusCode();
+		this.statusLine = resp.getStatusLine().toString();
+		this.host = RemoteConnector.hostOf(request.getURI());
+		this.headers = resp.getAllHeaders();
+		this.body = body;
+		this.charset = charset;
+	}
+
+	/**
+	 * Read the beginning of the response body and release the connection. The connection 
+	 * is closed rather than reused if the body exceeds {@link RemoteConnector#HTTP_ERROR_BODY_MAX}, 
+	 * not to download the rest of it. The request is not aborted, so that it can be sent again.
+	 * @param request
+	 * @param resp
+	 * @return
+	 * @throws IOException
+	 */
+	static ErrorResponse read(HttpUriRequest request, HttpResponse resp) throws IOException {
+		HttpEntity entity = resp.getEntity();
+		if (entity == null) {
+			return new ErrorResponse(request, resp, new byte[0], null);
+		}
+		int max = RemoteConnector.HTTP_ERROR_BODY_MAX;
+		long length = entity.getContentLength();
+		byte[] buffer = new byte[length >= 0 && length < max ? (int) length : Math.max(max, 0)];
+		int size = 0;
+		boolean complete = false;
+		InputStream stream = entity.getContent();
+		try {
+			int n;
+			while (size < buffer.length && (n = stream.read(buffer, size, buffer.length - size)) != -1) {
+				size += n;
+			}
+			complete = size < buffer.length || (length >= 0 && length <= size) || stream.read() == -1;
+		} finally {
+			if (complete) {
+				entity.consumeContent();
+			} else if (entity instanceof ConnectionReleaseTrigger) {
+				((ConnectionReleaseTrigger) entity).abortConnection();
+			} else {
+				request.abort();
+			}
+		}
+		byte[] body = buffer;
+		if (size < buffer.length) {
+			body = new byte[size];
+			System.arraycopy(buffer, 0, body, 0, size);
+		}
+		return new ErrorResponse(request, resp, body, EntityUtils.getContentCharSet(entity));
+	}
+
+	synchronized String getBody() {
+		if (text == null) {
+			try {
+				text = new String(body, charset == null ? "UTF-8" : charset);
+			} catch (UnsupportedEncodingException e) {
+				text = new String(body);
+			}
+		}
+		return text;
+	}
+
+	String getHeader(String name) {
+		for (Header header : headers) {
+			if (header.getName().equalsIgnoreCase(name)) {
+				return header.getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the &lt;h1&gt; title of the error page, the status line if missing
+	 */
+	String getTitle() {
+		String page = getBody();
+		int start = page.indexOf("<h1>");
+		int end = start < 0 ? -1 : page.indexOf("</h1>", start);
+		return end < 0 ? statusLine : page.substring(start + 4, end);
+	}
+}
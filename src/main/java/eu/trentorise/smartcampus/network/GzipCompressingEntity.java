@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * Request entity compressing the wrapped entity with gzip while it is sent
+ */
+class GzipCompressingEntity extends HttpEntityWrapper {
+
+	private static final Header GZIP = new BasicHeader("Content-Encoding", "gzip");
+
+	GzipCompressingEntity(HttpEntity entity) {
+		super(entity);
+	}
+
+	@Override
+	public Header getContentEncoding() {
+		return GZIP;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public boolean isChunked() {
+		return true;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		throw new UnsupportedOperationException("Compressed request entity can only be written");
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		wrappedEntity.writeTo(gzip);
+		gzip.finish();
+	}
+}
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+
+package eu.trentorise.smartcampus.network;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedging of the GET calls: when the response is slower than the given percentile of the recent 
+ * response times of the host, a second identical request is sent and the first successful 
+ * response is used, aborting the other request. Hedging cuts the tail latency caused by a slow 
+ * connection or server instance, at the cost of a few extra requests, limited by a budget.
+ * Calls streaming the response to a handler are never hedged.
+ */
+public class HedgePolicy {
+
+	private static final long TOKEN = 1000;
+
+	private final double percentile;
+	private long minDelay = 10;
+	private long maxDelay = 10 * 1000;
+	private int minSamples = 100;
+	private int window = 1000;
+	private double budgetRatio = 0.1;
+	private int budgetMax = 10;
+
+	/** hedging budget, in thousandths of hedge */
+	private final AtomicLong budget = new AtomicLong(budgetMax * TOKEN);
+	private final ConcurrentMap<String, HostLatency> hosts = new ConcurrentHashMap<String, HostLatency>();
+
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong wins = new AtomicLong();
+	private final AtomicLong budgetExhausted = new AtomicLong();
+
+	/**
+	 * @param percentile percentile of the response times after which a call is hedged, e.g. 95
+	 */
+	public HedgePolicy(double percentile) {
+		this.percentile = percentile;
+	}
+
+	/**
+	 * @param minDelay min time (in ms) before hedging a call, default 10
+	 * @param maxDelay max time (in ms) before hedging a call, default 10000
+	 */
+	public void setDelayBounds(long minDelay, long maxDelay) {
+		this.minDelay = minDelay;
+		this.maxDelay = Math.max(minDelay, maxDelay);
+	}
+
+	/**
+	 * @param minSamples number of response times of a host needed before hedging its calls, default 100
+	 * @param window number of response times the percentile is computed on, default 1000
+	 */
+	public void setSamples(int minSamples, int window) {
+		this.minSamples = minSamples;
+		this.window = Math.max(minSamples, window);
+	}
+
+	/**
+	 * @param ratio hedges earned by each call, default 0.1: at most 10% more requests are sent
+	 * @param max max number of hedges that can be accumulated, default 10
+	 */
+	public void setBudget(double ratio, int max) {
+		this.budgetRatio = ratio;
+		this.budgetMax = max;
+		budget.set(max * TOKEN);
+	}
+
+	/**
+	 * @return number of hedging requests sent
+	 */
+	public long getHedgeCount() {
+		return hedges.get();
+	}
+
+	/**
+	 * @return number of calls whose response came from the hedging request
+	 */
+	public long getWinCount() {
+		return wins.get();
+	}
+
+	/**
+	 * @return number of hedging requests not sent because the budget was exhausted
+	 */
+	public long getBudgetExhaustedCount() {
+		return budgetExhausted.get();
+	}
+
+	/**
+	 * @param host
+	 * @return the current hedging delay of the host calls in ms, -1 if not enough response times are known
+	 */
+	public long getDelay(String host) {
+		long delay = delay(host);
+		return delay < 0 ? -1 : TimeUnit.MICROSECONDS.toMillis(delay);
+	}
+
+	/**
+	 * Earn the budget of a call
+	 * @param host
+	 * @return the delay (in us) after which the call should be hedged, -1 to not hedge it
+	 */
+	long delay(String host) {
+		if (budget.get() < budgetMax * TOKEN) {
+			budget.addAndGet((long) (budgetRatio * TOKEN));
+		}
+		HostLatency latency = hosts.get(host);
+		return latency == null ? -1 : latency.delay;
+	}
+
+	/**
+	 * Take a hedge from the budget
+	 * @return false if the hedging request should not be sent
+	 */
+	boolean hedge() {
+		for (;;) {
+			long current = budget.get();
+			if (current < TOKEN) {
+				budgetExhausted.incrementAndGet();
+				return false;
+			}
+			if (budget.compareAndSet(current, current - TOKEN)) {
+				hedges.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @param host
+	 * @param nanos response time of a successful call
+	 * @param hedged true if the response came from the hedging request
+	 */
+	void completed(String host, long nanos, boolean hedged) {
+		if (hedged) {
+			wins.incrementAndGet();
+		}
+		HostLatency latency = hosts.get(host);
+		if (latency == null) {
+			latency = new HostLatency();
+			HostLatency existing = hosts.putIfAbsent(host, latency);
+			if (existing != null) {
+				latency = existing;
+			}
+		}
+		latency.record(nanos);
+	}
+
+	/**
+	 * Response times of a host, over the last window of calls
+	 */
+	private class HostLatency {
+		private volatile LatencyHistogram current = new LatencyHistogram();
+		private volatile LatencyHistogram previous = null;
+		/** hedging delay in us, -1 if unknown */
+		private volatile long delay = -1;
+
+		void record(long nanos) {
+			LatencyHistogram histogram = current;
+			histogram.record(nanos);
+			long count = histogram.getCount();
+			if (count >= window) {
+				synchronized (this) {
+					if (current == histogram) {
+						previous = histogram;
+						current = new LatencyHistogram();
+						update(histogram);
+					}
+				}
+			} else if (count % 32 == 0 || count == minSamples) {
+				LatencyHistogram last = previous;
+				update(count >= minSamples || last == null ? histogram : last);
+			}
+		}
+
+		private void update(LatencyHistogram histogram) {
+			if (histogram.getCount() < minSamples) {
+				delay = -1;
+			} else {
+				long micros = histogram.getPercentile(percentile);
+				delay = Math.min(TimeUnit.MILLISECONDS.toMicros(maxDelay), Math.max(TimeUnit.MILLISECONDS.toMicros(minDelay), micros));
+			}
+		}
+	}
+}
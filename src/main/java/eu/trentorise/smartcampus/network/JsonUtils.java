@@ -15,11 +15,22 @@
  ******************************************************************************/
 package eu.trentorise.smartcampus.network;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
 import org.codehaus.jackson.map.SerializationConfig;
 import org.codehaus.jackson.map.introspect.NopAnnotationIntrospector;
 import org.codehaus.jackson.type.TypeReference;
@@ -40,6 +51,28 @@ public class JsonUtils {
         fullMapper.enable(SerializationConfig.Feature.WRITE_ENUMS_USING_TO_STRING);
         fullMapper.disable(SerializationConfig.Feature.FAIL_ON_EMPTY_BEANS);
     }
+
+    /** readers and writers bound to their type, by class */
+    private static final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
+    private static final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<Class<?>, ObjectWriter>();
+    /** collection readers, by element class */
+    private static final ConcurrentMap<Class<?>, ObjectReader> listReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
+    private static final ConcurrentMap<Class<?>, ObjectReader> arrayReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
+    private static final ConcurrentMap<Class<?>, ObjectReader> mapReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
+
+    /**
+     * Build in advance the readers and writers of the classes, with their serializers 
+     * and deserializers, so that the first conversions do not pay for the introspection.
+     * @param classes
+     */
+    public static void prepare(Class<?>... classes) {
+    	for (Class<?> cls : classes) {
+    		reader(cls);
+    		writer(cls);
+    		fullMapper.canDeserialize(fullMapper.constructType(cls));
+    		fullMapper.canSerialize(cls);
+    	}
+    }
     
     /**
      * Convert an object to object of the specified class
@@ -58,12 +91,42 @@ public class JsonUtils {
      */
 	public static String toJSON(Object data) {
 		try {
-			return fullMapper.writeValueAsString(data);
+			return writer(data).writeValueAsString(data);
 		} catch (Exception e) {
 			return "";
 		}
 	}
 
+	/**
+	 * Convert an object to UTF-8 encoded JSON
+	 * @param data
+	 * @return JSON representation of the object, empty if it cannot be serialized
+	 */
+	public static byte[] toJSONBytes(Object data) {
+		try {
+			return writer(data).writeValueAsBytes(data);
+		} catch (Exception e) {
+			return new byte[0];
+		}
+	}
+
+	/**
+	 * Write the JSON representation of the object to the stream.
+	 * The stream is not closed.
+	 * @param data
+	 * @param out
+	 * @throws IOException if the stream cannot be written or the object cannot be serialized
+	 */
+	public static void toJSON(Object data, OutputStream out) throws IOException {
+		JsonGenerator generator = fullMapper.getJsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+		generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		try {
+			writer(data).writeValue(generator, data);
+		} finally {
+			generator.close();
+		}
+	}
+
 	/**
 	 * Convert JSON String to an object of the specified class
 	 * @param body
@@ -72,7 +135,35 @@ public class JsonUtils {
 	 */
 	public static <T> T toObject(String body, Class<T> cls) {
 		try {
-			return fullMapper.readValue(body, cls);
+			return reader(cls).<T>readValue(body);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Convert JSON bytes to an object of the specified class. The encoding is detected
+	 * @param body
+	 * @param cls
+	 * @return
+	 */
+	public static <T> T toObject(byte[] body, Class<T> cls) {
+		try {
+			return reader(cls).<T>readValue(body);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Convert JSON String to an object of the specified generic type
+	 * @param body
+	 * @param type
+	 * @return
+	 */
+	public static <T> T toObject(String body, TypeReference<T> type) {
+		try {
+			return fullMapper.<T>readValue(body, type);
 		} catch (Exception e) {
 			return null;
 		}
@@ -86,16 +177,176 @@ public class JsonUtils {
 	 */
 	public static <T> List<T> toObjectList(String body, Class<T> cls) {
 		try {
-			List<Object> list = fullMapper.readValue(body, new TypeReference<List<?>>() { });
-			List<T> result = new ArrayList<T>();
-			for (Object o : list) {
-				result.add(fullMapper.convertValue(o,cls));
-			}
-			return result;
+			return listReader(cls).<List<T>>readValue(body);
 		} catch (Exception e) {
 			return null;
 		}
 	}
 
+	/**
+	 * Convert JSON array string to the array of objects of the specified class
+	 * @param body
+	 * @param cls
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T[] toObjectArray(String body, Class<T> cls) {
+		try {
+			return (T[]) arrayReader(cls).readValue(body);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Convert JSON object string to the map of objects of the specified class
+	 * @param body
+	 * @param cls map value class
+	 * @return
+	 */
+	public static <T> Map<String, T> toObjectMap(String body, Class<T> cls) {
+		try {
+			return mapReader(cls).<Map<String, T>>readValue(body);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static ObjectReader reader(Class<?> cls) {
+		ObjectReader reader = readers.get(cls);
+		if (reader == null) {
+			reader = fullMapper.reader(cls);
+			readers.putIfAbsent(cls, reader);
+		}
+		return reader;
+	}
+
+	private static ObjectWriter writer(Object data) {
+		return data == null ? fullMapper.writer() : writer(data.getClass());
+	}
+
+	private static ObjectWriter writer(Class<?> cls) {
+		ObjectWriter writer = writers.get(cls);
+		if (writer == null) {
+			writer = fullMapper.writerWithType(cls);
+			writers.putIfAbsent(cls, writer);
+		}
+		return writer;
+	}
+
+	private static ObjectReader listReader(Class<?> cls) {
+		ObjectReader reader = listReaders.get(cls);
+		if (reader == null) {
+			reader = fullMapper.reader(fullMapper.getTypeFactory().constructCollectionType(List.class, cls));
+			listReaders.putIfAbsent(cls, reader);
+		}
+		return reader;
+	}
+
+	private static ObjectReader arrayReader(Class<?> cls) {
+		ObjectReader reader = arrayReaders.get(cls);
+		if (reader == null) {
+			reader = fullMapper.reader(fullMapper.getTypeFactory().constructArrayType(cls));
+			arrayReaders.putIfAbsent(cls, reader);
+		}
+		return reader;
+	}
+
+	private static ObjectReader mapReader(Class<?> cls) {
+		ObjectReader reader = mapReaders.get(cls);
+		if (reader == null) {
+			reader = fullMapper.reader(fullMapper.getTypeFactory().constructMapType(Map.class, String.class, cls));
+			mapReaders.putIfAbsent(cls, reader);
+		}
+		return reader;
+	}
+
+	/**
+	 * Read an object of the specified class directly from the JSON stream.
+	 * The stream is not closed.
+	 * @param stream
+	 * @param cls
+	 * @return
+	 * @throws IOException if the stream cannot be read or does not contain valid JSON
+	 */
+	public static <T> T toObject(InputStream stream, Class<T> cls) throws IOException {
+		JsonParser parser = createParser(stream);
+		try {
+			return reader(cls).<T>readValue(parser);
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Read an object of the specified generic type directly from the JSON stream.
+	 * The stream is not closed.
+	 * @param stream
+	 * @param type
+	 * @return
+	 * @throws IOException if the stream cannot be read or does not contain valid JSON
+	 */
+	public static <T> T toObject(InputStream stream, TypeReference<T> type) throws IOException {
+		JsonParser parser = createParser(stream);
+		try {
+			return fullMapper.<T>readValue(parser, type);
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Read a JSON array from the stream, passing the elements to the handler one by one
+	 * as soon as they are parsed, so that the array is never kept in memory as a whole.
+	 * The stream is not closed.
+	 * @param stream
+	 * @param cls array element class
+	 * @param handler
+	 * @return number of elements read
+	 * @throws IOException if the stream cannot be read or does not contain a valid JSON array
+	 */
+	public static <T> int toObjectStream(InputStream stream, Class<T> cls, ObjectHandler<T> handler) throws IOException {
+		JsonParser parser = createParser(stream);
+		try {
+			JsonToken token = parser.nextToken();
+			if (token == null || token == JsonToken.VALUE_NULL) {
+				return 0;
+			}
+			if (token != JsonToken.START_ARRAY) {
+				throw new IOException("JSON array expected, found " + token);
+			}
+			int count = 0;
+			ObjectReader reader = reader(cls);
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				T element = reader.<T>readValue(parser);
+				count++;
+				if (!handler.handle(element)) {
+					break;
+				}
+			}
+			return count;
+		} finally {
+			parser.close();
+		}
+	}
+
+	private static JsonParser createParser(InputStream stream) throws IOException {
+		JsonParser parser = fullMapper.getJsonFactory().createJsonParser(stream);
+		parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+		return parser;
+	}
+
+	/**
+	 * Callback receiving the elements of a JSON array read with 
+	 * {@link JsonUtils#toObjectStream(InputStream, Class, ObjectHandler)}
+	 * @param <T> element type
+	 */
+	public interface ObjectHandler<T> {
+		/**
+		 * @param object parsed array element
+		 * @return true to continue reading, false to stop
+		 */
+		boolean handle(T object);
+	}
 
 }
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+import eu.trentorise.smartcampus.network.RemoteFuture.RemoteCall;
+
+/**
+ * Lazy iterator over a paginated list service, requesting the pages with 
+ * <code>start</code> and <code>count</code> query parameters. While a page is consumed, 
+ * the next one is fetched on the {@link AsyncRemoteConnector} executor, using the specified 
+ * {@link RemoteClient} or the {@link RemoteConnector#getDefaultClient() default} one. Each page is parsed 
+ * as it is read from the response, so at most two pages are kept in memory. 
+ * The iteration ends with the first page shorter than the page size: a service capping 
+ * <code>count</code> below the page size ends it after the first page, so the page size 
+ * must not exceed the max page of the service.
+ * <p>
+ * The {@link RemoteException}s are thrown wrapped in a {@link RemoteIterationException}.
+ * Close the iterator if abandoned before the end, to abort the prefetch in progress.
+ * @param <T> element type
+ */
+public class PageIterator<T> implements Iterator<T>, Closeable {
+
+	private final RemoteClient client;
+	private final String host;
+	private final String service;
+	private final String token;
+	private final Map<String, Object> parameters;
+	private final Class<T> cls;
+	private final int pageSize;
+
+	private String startParameter = "start";
+	private String countParameter = "count";
+
+	private int start = 0;
+	private List<T> page = null;
+	private int index = 0;
+	private RemoteFuture<List<T>> next = null;
+	private boolean last = false;
+
+	/**
+	 * @param host
+	 * @param service
+	 * @param token
+	 * @param parameters additional query parameters, may be null
+	 * @param cls element class
+	 * @param pageSize number of elements requested per page, positive
+	 * @throws IllegalArgumentException if the page size is not positive
+	 */
+	public PageIterator(String host, String service, String token, Map<String, Object> parameters, 
+			Class<T> cls, int pageSize) {
+		this(null, host, service, token, parameters, cls, pageSize);
+	}
+
+	/**
+	 * @param client client requesting the pages, null for the default client
+	 * @param host
+	 * @param service
+	 * @param token
+	 * @param parameters additional query parameters, may be null
+	 * @param cls element class
+	 * @param pageSize number of elements requested per page, positive
+	 * @throws IllegalArgumentException if the page size is not positive
+	 */
+	public PageIterator(RemoteClient client, String host, String service, String token, Map<String, Object> parameters, 
+			Class<T> cls, int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("page size must be positive: " + pageSize);
+		}
+		this.client = client;
+		this.host = host;
+		this.service = service;
+		this.token = token;
+		this.parameters = parameters;
+		this.cls = cls;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * @param startParameter name of the parameter of the first element index, default <code>start</code>
+	 * @param countParameter name of the parameter of the page size, default <code>count</code>
+	 */
+	public void setParameterNames(String startParameter, String countParameter) {
+		this.startParameter = startParameter;
+		this.countParameter = countParameter;
+	}
+
+	public boolean hasNext() {
+		while (page == null || index >= page.size()) {
+			if (last) {
+				return false;
+			}
+			loadPage();
+		}
+		return true;
+	}
+
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return page.get(index++);
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Abort the prefetch in progress, if any, and end the iteration.
+	 */
+	public void close() {
+		last = true;
+		page = null;
+		if (next != null) {
+			next.cancel(true);
+			next = null;
+		}
+	}
+
+	private void loadPage() {
+		RemoteFuture<List<T>> current = next;
+		if (current == null) {
+			current = fetch();
+		}
+		// run the page here unless the prefetch already started: on a busy executor, e.g. 
+		// when iterating on one of its threads, the queued prefetch may never start
+		current.run();
+		try {
+			page = current.getResult();
+		} catch (RemoteException e) {
+			last = true;
+			throw new RemoteIterationException(e);
+		} finally {
+			next = null;
+		}
+		index = 0;
+		last = page.size() < pageSize;
+		if (!last) {
+			next = fetch();
+			AsyncRemoteConnector.getExecutor().execute(next);
+		}
+	}
+
+	private RemoteFuture<List<T>> fetch() {
+		final Map<String, Object> pageParameters = parameters == null 
+				? new HashMap<String, Object>() : new HashMap<String, Object>(parameters);
+		pageParameters.put(startParameter, start);
+		pageParameters.put(countParameter, pageSize);
+		start += pageSize;
+		final RemoteClient client = this.client != null ? this.client : RemoteConnector.getDefaultClient();
+		return new RemoteFuture<List<T>>(new RemoteCall<List<T>>() {
+			protected HttpUriRequest createRequest() throws RemoteException {
+				return client.createGet(host, service, token, pageParameters);
+			}
+
+			protected List<T> execute(HttpUriRequest request) throws RemoteException {
+				final List<T> elements = new ArrayList<T>(pageSize);
+				client.readStream(request, cls, new JsonUtils.ObjectHandler<T>() {
+					public boolean handle(T object) {
+						elements.add(object);
+						return true;
+					}
+				});
+				return elements;
+			}
+		});
+	}
+}
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Executes many calls to the same host, reusing the persistent connections of the 
+ * specified {@link RemoteClient} or of the {@link RemoteConnector#getDefaultClient() default} 
+ * one. The calls are taken in order by a fixed number of workers, 
+ * the calling thread being one of them and the others running on the 
+ * {@link AsyncRemoteConnector} executor. 
+ * The failure of a call does not stop the others: each outcome is reported in its 
+ * {@link RemoteResult}.
+ */
+public class RemoteBatch {
+
+	private final RemoteClient client;
+	private final String host;
+	private final String token;
+	private int parallelism = 8;
+
+	/**
+	 * @param host host of all the calls
+	 * @param token token authorizing all the calls
+	 */
+	public RemoteBatch(String host, String token) {
+		this(null, host, token);
+	}
+
+	/**
+	 * @param client client performing the calls, null for the default client
+	 * @param host host of all the calls
+	 * @param token token authorizing all the calls
+	 */
+	public RemoteBatch(RemoteClient client, String host, String token) {
+		this.client = client;
+		this.host = host;
+		this.token = token;
+	}
+
+	/**
+	 * @param parallelism max number of calls executed at the same time, default 8. 
+	 * It is capped to the max connections per route of the client
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Execute the calls and wait for all of them to complete.
+	 * @param requests
+	 * @return the response body of each call, in the order of the requests
+	 */
+	public List<RemoteResult<String>> execute(List<BatchRequest> requests) {
+		return execute(requests, new Call<String>() {
+			public String execute(RemoteClient client, HttpUriRequest request) throws RemoteException {
+				if (request instanceof HttpGet) {
+					return client.getJSON((HttpGet) request);
+				}
+				if (request instanceof HttpPost) {
+					return client.postJSON((HttpPost) request);
+				}
+				if (request instanceof HttpPut) {
+					return client.putJSON((HttpPut) request);
+				}
+				return client.deleteJSON((HttpDelete) request);
+			}
+		});
+	}
+
+	/**
+	 * Execute the calls and wait for all of them to complete.
+	 * @param requests
+	 * @param cls class of the responses
+	 * @return the response of each call, in the order of the requests
+	 */
+	public <T> List<RemoteResult<T>> execute(List<BatchRequest> requests, final Class<T> cls) {
+		return execute(requests, new Call<T>() {
+			public T execute(RemoteClient client, HttpUriRequest request) throws RemoteException {
+				return client.readObject(request, cls);
+			}
+		});
+	}
+
+	private <T> List<RemoteResult<T>> execute(List<BatchRequest> requests, Call<T> call) {
+		RemoteClient executor = client != null ? client : RemoteConnector.getDefaultClient();
+		Worker<T> worker = new Worker<T>(executor, requests, call);
+		int workers = Math.min(Math.min(parallelism, executor.getMaxConnectionsPerRoute()), requests.size());
+		List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+		for (int i = 1; i < workers; i++) {
+			futures.add(AsyncRemoteConnector.getExecutor().submit(worker));
+		}
+		boolean completed = false;
+		try {
+			worker.execute();
+			completed = true;
+		} finally {
+			if (!completed) {
+				worker.halt();
+			}
+			// all the calls are taken: the workers still queued, e.g. behind the calling thread 
+			// on a busy executor, are not needed and are not waited for
+			for (Future<?> future : futures) {
+				future.cancel(false);
+			}
+			try {
+				worker.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				worker.stop(new RemoteException(e.getMessage(), e));
+				worker.interrupt();
+			}
+		}
+		return worker.results();
+	}
+
+	private interface Call<T> {
+		T execute(RemoteClient client, HttpUriRequest request) throws RemoteException;
+	}
+
+	private class Worker<T> implements Runnable {
+		private final RemoteClient client;
+		private final List<BatchRequest> requests;
+		private final Call<T> call;
+		private final AtomicInteger next = new AtomicInteger();
+		private final int count;
+		private final List<RemoteResult<T>> results;
+		/** executor threads taking calls */
+		private final Set<Thread> running = new HashSet<Thread>();
+		/** deadline of the thread executing the batch, applied to the calls of all the workers */
+		private final Deadline deadline = Deadline.current();
+
+		Worker(RemoteClient client, List<BatchRequest> requests, Call<T> call) {
+			this.client = client;
+			this.requests = requests;
+			this.call = call;
+			this.count = requests.size();
+			this.results = new ArrayList<RemoteResult<T>>(Collections.<RemoteResult<T>>nCopies(count, null));
+		}
+
+		/**
+		 * Take calls on an executor thread, unless all of them are already taken.
+		 */
+		public void run() {
+			if (!enter()) {
+				return;
+			}
+			Deadline previous = Deadline.attach(deadline);
+			try {
+				execute();
+			} catch (RuntimeException e) {
+				stop(new RemoteException(e.getMessage(), e));
+			} finally {
+				Deadline.restore(previous);
+				exit();
+			}
+		}
+
+		private void execute() {
+			int i;
+			while ((i = next.getAndIncrement()) < count) {
+				RemoteResult<T> result;
+				try {
+					result = RemoteResult.success(call.execute(client, requests.get(i).createRequest(client, host, token)));
+				} catch (RemoteException e) {
+					result = RemoteResult.failure(e);
+				} catch (SecurityException e) {
+					result = RemoteResult.failure(e);
+				}
+				synchronized (this) {
+					results.set(i, result);
+				}
+			}
+		}
+
+		private synchronized boolean enter() {
+			if (next.get() >= count) {
+				return false;
+			}
+			running.add(Thread.currentThread());
+			return true;
+		}
+
+		private synchronized void exit() {
+			running.remove(Thread.currentThread());
+			notifyAll();
+		}
+
+		/**
+		 * Wait for the executor threads taking calls to complete them.
+		 * @throws InterruptedException
+		 */
+		synchronized void await() throws InterruptedException {
+			while (!running.isEmpty()) {
+				wait();
+			}
+		}
+
+		/**
+		 * Interrupt the executor threads taking calls.
+		 */
+		synchronized void interrupt() {
+			for (Thread thread : running) {
+				thread.interrupt();
+			}
+		}
+
+		/**
+		 * Stop taking calls, leaving the ones not taken without result.
+		 */
+		void halt() {
+			next.set(count);
+		}
+
+		/**
+		 * Stop taking calls, failing the ones not completed.
+		 * @param e
+		 */
+		synchronized void stop(RemoteException e) {
+			next.set(count);
+			for (int i = 0; i < count; i++) {
+				if (results.get(i) == null) {
+					results.set(i, RemoteResult.<T>failure(e));
+				}
+			}
+		}
+
+		synchronized List<RemoteResult<T>> results() {
+			return new ArrayList<RemoteResult<T>>(results);
+		}
+	}
+}
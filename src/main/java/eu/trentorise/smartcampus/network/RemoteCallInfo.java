@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.net.URI;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Timings and outcome of a single HTTP call, split into phases: 
+ * <ul>
+ * <li>acquire: wait for a pooled connection</li>
+ * <li>connect: opening a new connection, including the TLS handshake</li>
+ * <li>wait: sending the request and waiting for the response headers</li>
+ * <li>read: reading (and parsing, for typed calls) the response body</li>
+ * </ul>
+ * All the times are in nanoseconds.
+ */
+public class RemoteCallInfo {
+
+	/**
+	 * Outcome of the call
+	 */
+	public enum Outcome {
+		/** 200 (OK) response */
+		SUCCESS, 
+		/** 401 (Unauthorized) or 403 (Forbidden) response, reported as {@link SecurityException} */
+		SECURITY_ERROR, 
+		/** any other failure, reported as {@link RemoteException} */
+		REMOTE_ERROR
+	}
+
+	private final String method;
+	private final URI uri;
+	private final long start = System.nanoTime();
+	private long acquireTime = 0;
+	private long connectTime = 0;
+	private long waitTime = 0;
+	private long readTime = 0;
+	private long totalTime = 0;
+	private long responseTime = 0;
+	private long bytesSent = -1;
+	private long bytesReceived = 0;
+	private int status = -1;
+	private int pooledConnections = -1;
+	private Exception exception = null;
+
+	RemoteCallInfo(HttpUriRequest request) {
+		this.method = request.getMethod();
+		this.uri = request.getURI();
+		if (request instanceof HttpEntityEnclosingRequest) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			bytesSent = entity == null ? 0 : entity.getContentLength();
+		} else {
+			bytesSent = 0;
+		}
+	}
+
+	void acquired(long time) {
+		acquireTime += time;
+	}
+
+	void connected(long time) {
+		connectTime += time;
+	}
+
+	void responseReceived(int status) {
+		this.status = status;
+		responseTime = System.nanoTime();
+		waitTime = Math.max(0, responseTime - start - acquireTime - connectTime);
+	}
+
+	void received(long bytes) {
+		bytesReceived += bytes;
+	}
+
+	void completed(Exception exception, int pooledConnections) {
+		long now = System.nanoTime();
+		this.exception = exception;
+		this.pooledConnections = pooledConnections;
+		totalTime = now - start;
+		if (responseTime > 0) {
+			readTime = now - responseTime;
+		} else {
+			waitTime = Math.max(0, totalTime - acquireTime - connectTime);
+		}
+	}
+
+	/**
+	 * @return HTTP method of the call
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return URI of the call
+	 */
+	public URI getURI() {
+		return uri;
+	}
+
+	/**
+	 * @return host of the call, including the port if specified
+	 */
+	public String getHost() {
+		return RemoteConnector.hostOf(uri);
+	}
+
+	/**
+	 * @return HTTP status code, -1 if no response was received
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	public Outcome getOutcome() {
+		if (exception == null) {
+			return Outcome.SUCCESS;
+		}
+		return exception instanceof SecurityException ? Outcome.SECURITY_ERROR : Outcome.REMOTE_ERROR;
+	}
+
+	/**
+	 * @return the {@link RemoteException} or {@link SecurityException} the call failed with, null if succeeded
+	 */
+	public Exception getException() {
+		return exception;
+	}
+
+	public long getAcquireTime() {
+		return acquireTime;
+	}
+
+	public long getConnectTime() {
+		return connectTime;
+	}
+
+	public long getWaitTime() {
+		return waitTime;
+	}
+
+	public long getReadTime() {
+		return readTime;
+	}
+
+	public long getTotalTime() {
+		return totalTime;
+	}
+
+	/**
+	 * @return length of the request body, -1 if unknown (streamed)
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return number of bytes of the response body read by the caller
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * @return connections in the pool (idle or in use) when the call completed
+	 */
+	public int getPooledConnections() {
+		return pooledConnections;
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + uri + " " + getOutcome() + " status=" + status + " total=" + totalTime / 1000 + "us"
+				+ " (acquire=" + acquireTime / 1000 + ", connect=" + connectTime / 1000 + ", wait=" + waitTime / 1000 
+				+ ", read=" + readTime / 1000 + ") sent=" + bytesSent + " received=" + bytesReceived 
+				+ " pooled=" + pooledConnections;
+	}
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Listener notified around each HTTP call performed by {@link RemoteConnector}, e.g. to 
+ * collect metrics or propagate tracing headers. The methods are invoked on the calling 
+ * thread and must neither block nor throw exceptions.
+ * <p>
+ * Register it with {@link RemoteConnector#setCallListener(RemoteCallListener)}.
+ */
+public interface RemoteCallListener {
+
+	/**
+	 * Invoked before the request is sent. Headers may be added to the request.
+	 * @param request
+	 */
+	void callStarted(HttpUriRequest request);
+
+	/**
+	 * Invoked when the call has completed, successfully or not, and the response body has been read.
+	 * @param call timings and outcome of the call
+	 */
+	void callCompleted(RemoteCallInfo call);
+}
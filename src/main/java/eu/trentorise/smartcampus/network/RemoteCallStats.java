@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Default {@link RemoteCallListener}, collecting per-host counters and latency 
+ * histograms of each call phase. Recording is lock-free.
+ */
+public class RemoteCallStats implements RemoteCallListener {
+
+	private final ConcurrentMap<String, HostStats> hosts = new ConcurrentHashMap<String, HostStats>();
+
+	public void callStarted(HttpUriRequest request) {
+	}
+
+	public void callCompleted(RemoteCallInfo call) {
+		String host = call.getHost();
+		HostStats stats = hosts.get(host);
+		if (stats == null) {
+			stats = new HostStats();
+			HostStats existing = hosts.putIfAbsent(host, stats);
+			if (existing != null) {
+				stats = existing;
+			}
+		}
+		stats.record(call);
+	}
+
+	/**
+	 * @return the hosts called so far
+	 */
+	public Set<String> getHosts() {
+		return hosts.keySet();
+	}
+
+	/**
+	 * @param host host name, followed by ':' and the port if not the default one
+	 * @return the statistics of the host, null if never called
+	 */
+	public HostStats getStats(String host) {
+		return hosts.get(host);
+	}
+
+	/**
+	 * Discard all the statistics collected so far
+	 */
+	public void reset() {
+		hosts.clear();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (String host : hosts.keySet()) {
+			sb.append(host).append(": ").append(hosts.get(host)).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Statistics of the calls to a single host
+	 */
+	public static class HostStats {
+		private final AtomicLong successes = new AtomicLong();
+		private final AtomicLong securityErrors = new AtomicLong();
+		private final AtomicLong remoteErrors = new AtomicLong();
+		private final AtomicLong bytesSent = new AtomicLong();
+		private final AtomicLong bytesReceived = new AtomicLong();
+		private volatile int pooledConnections = 0;
+		private final LatencyHistogram totalTime = new LatencyHistogram();
+		private final LatencyHistogram acquireTime = new LatencyHistogram();
+		private final LatencyHistogram connectTime = new LatencyHistogram();
+		private final LatencyHistogram waitTime = new LatencyHistogram();
+		private final LatencyHistogram readTime = new LatencyHistogram();
+
+		void record(RemoteCallInfo call) {
+			switch (call.getOutcome()) {
+			case SUCCESS:
+				successes.incrementAndGet();
+				break;
+			case SECURITY_ERROR:
+				securityErrors.incrementAndGet();
+				break;
+			default:
+				remoteErrors.incrementAndGet();
+			}
+			if (call.getBytesSent() > 0) {
+				bytesSent.addAndGet(call.getBytesSent());
+			}
+			bytesReceived.addAndGet(call.getBytesReceived());
+			pooledConnections = call.getPooledConnections();
+			totalTime.record(call.getTotalTime());
+			acquireTime.record(call.getAcquireTime());
+			if (call.getConnectTime() > 0) {
+				connectTime.record(call.getConnectTime());
+			}
+			waitTime.record(call.getWaitTime());
+			readTime.record(call.getReadTime());
+		}
+
+		public long getCalls() {
+			return successes.get() + securityErrors.get() + remoteErrors.get();
+		}
+
+		public long getSuccesses() {
+			return successes.get();
+		}
+
+		/**
+		 * @return number of calls failed with {@link SecurityException}
+		 */
+		public long getSecurityErrors() {
+			return securityErrors.get();
+		}
+
+		/**
+		 * @return number of calls failed with {@link RemoteException}
+		 */
+		public long getRemoteErrors() {
+			return remoteErrors.get();
+		}
+
+		public long getBytesSent() {
+			return bytesSent.get();
+		}
+
+		public long getBytesReceived() {
+			return bytesReceived.get();
+		}
+
+		/**
+		 * @return connections in the pool at the end of the last call
+		 */
+		public int getPooledConnections() {
+			return pooledConnections;
+		}
+
+		public LatencyHistogram getTotalTime() {
+			return totalTime;
+		}
+
+		public LatencyHistogram getAcquireTime() {
+			return acquireTime;
+		}
+
+		/**
+		 * @return time spent opening new connections, TLS handshake included. Calls reusing 
+		 * a pooled connection are not counted.
+		 */
+		public LatencyHistogram getConnectTime() {
+			return connectTime;
+		}
+
+		public LatencyHistogram getWaitTime() {
+			return waitTime;
+		}
+
+		public LatencyHistogram getReadTime() {
+			return readTime;
+		}
+
+		@Override
+		public String toString() {
+			return "calls=" + getCalls() + " ok=" + getSuccesses() + " securityErrors=" + getSecurityErrors() 
+					+ " remoteErrors=" + getRemoteErrors() + " sent=" + getBytesSent() + " received=" + getBytesReceived()
+					+ " pooled=" + getPooledConnections() + " total[" + totalTime + "] acquire[" + acquireTime 
+					+ "] connect[" + connectTime + "] wait[" + waitTime + "] read[" + readTime + "]";
+		}
+	}
+}
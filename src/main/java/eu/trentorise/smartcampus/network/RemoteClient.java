@@ -0,0 +1,1717 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+
+package eu.trentorise.smartcampus.network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.ParseException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.RequestWrapper;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.type.TypeReference;
+
+import eu.trentorise.smartcampus.network.RemoteConnector.CLIENT_TYPE;
+
+/**
+ * REST client with its own connection pool, timeouts and optional components, created 
+ * with a {@link Builder}. The configuration is fixed when the client is built, so a client
+ * can be shared by any number of threads; components needing different settings, e.g. short
+ * timeouts for a latency critical service and long ones for bulk exports, use different clients.
+ * The static methods of {@link RemoteConnector} use the {@link RemoteConnector#getDefaultClient() default client}.
+ */
+public class RemoteClient {
+
+	/** Request parameter carrying the {@link CLIENT_TYPE} of the client sending the request, for the {@link Transport} */
+	public static final String CLIENT_TYPE_PARAM = "eu.trentorise.smartcampus.client-type";
+
+	private static final String DEFAULT_CHARSET = "UTF-8";
+
+	/** call in progress on the current thread, tracked only when a listener is registered */
+	private static final ThreadLocal<RemoteCallInfo> currentCall = new ThreadLocal<RemoteCallInfo>();
+
+	private final CLIENT_TYPE clientType;
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final int poolTimeout;
+	private final int callTimeout;
+	private final int maxTotalConnections;
+	private final int maxConnectionsPerRoute;
+	private final int idleConnectionTimeout;
+	private final boolean compressionEnabled;
+	private final int gzipRequestThreshold;
+	/** connect and read timeouts of the hosts overriding the default ones */
+	private final Map<String, int[]> hostTimeouts;
+
+	private final ResponseCache responseCache;
+	private final RequestCoalescer requestCoalescer;
+	private final RemoteCallListener callListener;
+	private final RetryPolicy retryPolicy;
+	private final HedgePolicy hedgePolicy;
+	private final Bulkhead bulkhead;
+	private final TokenManager tokenManager;
+	private final Transport transport;
+
+	/** pooled client, created on the first call and rebuilt only when the pool settings change */
+	private volatile PooledClient pooledClient = null;
+
+	RemoteClient(Builder builder) {
+		clientType = builder.clientType;
+		connectTimeout = builder.connectTimeout;
+		readTimeout = builder.readTimeout;
+		poolTimeout = builder.poolTimeout;
+		callTimeout = builder.callTimeout;
+		maxTotalConnections = builder.maxTotalConnections;
+		maxConnectionsPerRoute = builder.maxConnectionsPerRoute;
+		idleConnectionTimeout = builder.idleConnectionTimeout;
+		compressionEnabled = builder.compressionEnabled;
+		gzipRequestThreshold = builder.gzipRequestThreshold;
+		hostTimeouts = builder.hostTimeouts.isEmpty() ? Collections.<String, int[]> emptyMap() 
+				: new HashMap<String, int[]>(builder.hostTimeouts);
+		responseCache = builder.responseCache;
+		requestCoalescer = builder.requestCoalescer;
+		callListener = builder.callListener;
+		retryPolicy = builder.retryPolicy;
+		hedgePolicy = builder.hedgePolicy;
+		bulkhead = builder.bulkhead;
+		tokenManager = builder.tokenManager;
+		transport = builder.transport;
+	}
+
+	/**
+	 * Settings of a {@link RemoteClient}. The defaults are the initial values of the 
+	 * corresponding {@link RemoteConnector} static fields.
+	 */
+	public static class Builder {
+		private CLIENT_TYPE clientType = CLIENT_TYPE.CLIENT_NORMAL;
+		private int connectTimeout = 30 * 1000;
+		private int readTimeout = 30 * 1000;
+		private int poolTimeout = 30 * 1000;
+		private int callTimeout = 0;
+		private int maxTotalConnections = 100;
+		private int maxConnectionsPerRoute = 20;
+		private int idleConnectionTimeout = 60 * 1000;
+		private boolean compressionEnabled = true;
+		private int gzipRequestThreshold = -1;
+		private final Map<String, int[]> hostTimeouts = new HashMap<String, int[]>();
+		private ResponseCache responseCache;
+		private RequestCoalescer requestCoalescer;
+		private RemoteCallListener callListener;
+		private RetryPolicy retryPolicy;
+		private HedgePolicy hedgePolicy;
+		private Bulkhead bulkhead;
+		private TokenManager tokenManager;
+		private Transport transport;
+
+		/**
+		 * @param type the way the SSL certificates are managed
+		 */
+		public Builder setClientType(CLIENT_TYPE type) {
+			this.clientType = type;
+			return this;
+		}
+
+		/**
+		 * Set the connect, read and pool timeouts at once
+		 * @param timeoutMs
+		 */
+		public Builder setTimeout(int timeoutMs) {
+			this.connectTimeout = timeoutMs;
+			this.readTimeout = timeoutMs;
+			this.poolTimeout = timeoutMs;
+			return this;
+		}
+
+		/**
+		 * @param timeoutMs max time to establish a connection, TLS handshake excluded
+		 */
+		public Builder setConnectTimeout(int timeoutMs) {
+			this.connectTimeout = timeoutMs;
+			return this;
+		}
+
+		/**
+		 * @param timeoutMs max time waiting for data from the server
+		 */
+		public Builder setReadTimeout(int timeoutMs) {
+			this.readTimeout = timeoutMs;
+			return this;
+		}
+
+		/**
+		 * @param timeoutMs max time waiting for a pooled connection to become available
+		 */
+		public Builder setPoolTimeout(int timeoutMs) {
+			this.poolTimeout = timeoutMs;
+			return this;
+		}
+
+		/**
+		 * @param timeoutMs max total time of each call, retries included, 0 for no limit.
+		 * A shorter {@link Deadline} of the calling thread takes precedence.
+		 */
+		public Builder setCallTimeout(int timeoutMs) {
+			this.callTimeout = timeoutMs;
+			return this;
+		}
+
+		/**
+		 * @param host host, with the port if not the default one, as in <code>api.example.com:8443</code>
+		 * @param connectTimeoutMs connect timeout of the calls to the host
+		 * @param readTimeoutMs read timeout of the calls to the host
+		 */
+		public Builder setHostTimeouts(String host, int connectTimeoutMs, int readTimeoutMs) {
+			hostTimeouts.put(host, new int[] { connectTimeoutMs, readTimeoutMs });
+			return this;
+		}
+
+		/**
+		 * @param total max number of pooled connections shared by all the hosts
+		 * @param perRoute max number of pooled connections for a single host
+		 */
+		public Builder setMaxConnections(int total, int perRoute) {
+			this.maxTotalConnections = total;
+			this.maxConnectionsPerRoute = perRoute;
+			return this;
+		}
+
+		/**
+		 * @param timeoutMs time after which an unused pooled connection is closed
+		 */
+		public Builder setIdleConnectionTimeout(int timeoutMs) {
+			this.idleConnectionTimeout = timeoutMs;
+			return this;
+		}
+
+		/**
+		 * @param enabled ask for gzip or deflate compressed responses
+		 */
+		public Builder setCompressionEnabled(boolean enabled) {
+			this.compressionEnabled = enabled;
+			return this;
+		}
+
+		/**
+		 * @param threshold min size (in chars) of the request bodies compressed with gzip, -1 to never compress them
+		 */
+		public Builder setGzipRequestThreshold(int threshold) {
+			this.gzipRequestThreshold = threshold;
+			return this;
+		}
+
+		public Builder setResponseCache(ResponseCache cache) {
+			this.responseCache = cache;
+			return this;
+		}
+
+		public Builder setRequestCoalescer(RequestCoalescer coalescer) {
+			this.requestCoalescer = coalescer;
+			return this;
+		}
+
+		public Builder setCallListener(RemoteCallListener listener) {
+			this.callListener = listener;
+			return this;
+		}
+
+		public Builder setRetryPolicy(RetryPolicy policy) {
+			this.retryPolicy = policy;
+			return this;
+		}
+
+		public Builder setHedgePolicy(HedgePolicy policy) {
+			this.hedgePolicy = policy;
+			return this;
+		}
+
+		public Builder setBulkhead(Bulkhead limiter) {
+			this.bulkhead = limiter;
+			return this;
+		}
+
+		public Builder setTokenManager(TokenManager manager) {
+			this.tokenManager = manager;
+			return this;
+		}
+
+		public Builder setTransport(Transport engine) {
+			this.transport = engine;
+			return this;
+		}
+
+		public RemoteClient build() {
+			return new RemoteClient(this);
+		}
+	}
+
+	public CLIENT_TYPE getClientType() {
+		return clientType;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public int getPoolTimeout() {
+		return poolTimeout;
+	}
+
+	public int getCallTimeout() {
+		return callTimeout;
+	}
+
+	/**
+	 * @param host host of the call, with the port if specified
+	 * @return the connect timeout of the calls to the host
+	 */
+	public int getConnectTimeout(String host) {
+		int[] timeouts = hostTimeouts.get(host);
+		return timeouts == null ? getConnectTimeout() : timeouts[0];
+	}
+
+	/**
+	 * @param host host of the call, with the port if specified
+	 * @return the read timeout of the calls to the host
+	 */
+	public int getReadTimeout(String host) {
+		int[] timeouts = hostTimeouts.get(host);
+		return timeouts == null ? getReadTimeout() : timeouts[1];
+	}
+
+	public int getMaxTotalConnections() {
+		return maxTotalConnections;
+	}
+
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	public int getIdleConnectionTimeout() {
+		return idleConnectionTimeout;
+	}
+
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	public int getGzipRequestThreshold() {
+		return gzipRequestThreshold;
+	}
+
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	public RequestCoalescer getRequestCoalescer() {
+		return requestCoalescer;
+	}
+
+	public RemoteCallListener getCallListener() {
+		return callListener;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	public HedgePolicy getHedgePolicy() {
+		return hedgePolicy;
+	}
+
+	public Bulkhead getBulkhead() {
+		return bulkhead;
+	}
+
+	public TokenManager getTokenManager() {
+		return tokenManager;
+	}
+
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @return the pooled client, created again if the client type or the pool size changed.
+	 * The replaced pool is closed once the calls using it are completed.
+	 */
+	HttpClient getHttpClient() {
+		return getPooledClient().client;
+	}
+
+	/**
+	 * @return the current pooled client, registered as used by the caller until {@link PooledClient#release()}
+	 */
+	private PooledClient acquirePooledClient() {
+		while (true) {
+			PooledClient current = getPooledClient();
+			if (current.acquire()) {
+				return current;
+			}
+			// retired and closed meanwhile: replaced by a new one
+		}
+	}
+
+	private PooledClient getPooledClient() {
+		PooledClient current = pooledClient;
+		if (current == null || !current.matches(this)) {
+			synchronized (this) {
+				current = pooledClient;
+				if (current == null || !current.matches(this)) {
+					PooledClient old = current;
+					current = new PooledClient(this);
+					pooledClient = current;
+					if (old != null) {
+						old.retire();
+					}
+				}
+			}
+		}
+		current.evictIdleConnections(getIdleConnectionTimeout());
+		return current;
+	}
+
+	/**
+	 * Close all the pooled connections and the connections of the transport, if any.
+	 * The pool is recreated on the next call.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			if (pooledClient != null) {
+				pooledClient.shutdown();
+				pooledClient = null;
+			}
+		}
+		Transport engine = getTransport();
+		if (engine != null) {
+			engine.shutdown();
+		}
+	}
+
+	public String getJSON(String host, String service, String token) throws SecurityException, RemoteException {
+		return getJSON(host, service, token, null);
+	}
+
+	public String getJSON(String host, String service, String token, Map<String, Object> parameters) 
+			throws SecurityException, RemoteException {
+		return getJSON(createGet(host, service, token, parameters));
+	}
+
+	/**
+	 * Perform GET and read the JSON response directly into an object of the specified class,
+	 * without buffering the response body.
+	 * @param host
+	 * @param service
+	 * @param token
+	 * @param parameters
+	 * @param cls
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public <T> T getJSON(String host, String service, String token,
+			Map<String, Object> parameters, Class<T> cls) throws SecurityException, RemoteException {
+		return readObject(createGet(host, service, token, parameters), cls);
+	}
+
+	/**
+	 * Perform GET and read the JSON response directly into an object of the specified generic type,
+	 * without buffering the response body.
+	 * @param host
+	 * @param service
+	 * @param token
+	 * @param parameters
+	 * @param type
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public <T> T getJSON(String host, String service, String token,
+			Map<String, Object> parameters, TypeReference<T> type) throws SecurityException, RemoteException {
+		return readObject(createGet(host, service, token, parameters), type);
+	}
+
+	/**
+	 * Perform GET of a JSON array and pass its elements to the handler one by one,
+	 * as they are read from the response. If the handler stops the reading or throws an exception,
+	 * the rest of the response is discarded closing the connection.
+	 * @param host
+	 * @param service
+	 * @param token
+	 * @param parameters
+	 * @param cls array element class
+	 * @param handler
+	 * @return number of elements read
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public <T> int getJSONStream(String host, String service, String token,
+			Map<String, Object> parameters, Class<T> cls, JsonUtils.ObjectHandler<T> handler)
+			throws SecurityException, RemoteException {
+		return readStream(createGet(host, service, token, parameters), cls, handler);
+	}
+
+	public String postJSON(String host, String service, String body, String token) throws SecurityException, RemoteException {
+		return postJSON(host, service, body, token, null);
+	}
+
+	public String postJSON(String host, String service, String body, String token, Map<String, Object> parameters)
+			throws SecurityException, RemoteException {
+		return postJSON(createPost(host, service, body, token, parameters));
+	}
+
+	/**
+	 * Perform POST and read the JSON response directly into an object of the specified class
+	 * @param host
+	 * @param service
+	 * @param body
+	 * @param token
+	 * @param parameters
+	 * @param cls
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public <T> T postJSON(String host, String service, String body,
+			String token, Map<String, Object> parameters, Class<T> cls)
+			throws SecurityException, RemoteException {
+		return readObject(createPost(host, service, body, token, parameters), cls);
+	}
+
+	/**
+	 * Perform POST sending the object serialized to JSON. The object is written
+	 * directly to the connection, without building the JSON String.
+	 * @param host
+	 * @param service
+	 * @param body object to serialize
+	 * @param token
+	 * @param parameters
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public String postObject(String host, String service, Object body,
+			String token, Map<String, Object> parameters) throws SecurityException, RemoteException {
+		return postJSON(createPost(host, service, compress(new JsonEntity(body), -1), token, parameters));
+	}
+
+	/**
+	 * Perform POST sending the object serialized to JSON and read the JSON response 
+	 * directly into an object of the specified class
+	 * @param host
+	 * @param service
+	 * @param body object to serialize
+	 * @param token
+	 * @param parameters
+	 * @param cls
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public <T> T postObject(String host, String service, Object body,
+			String token, Map<String, Object> parameters, Class<T> cls) throws SecurityException, RemoteException {
+		return readObject(createPost(host, service, compress(new JsonEntity(body), -1), token, parameters), cls);
+	}
+
+	/**
+	 * Perform POST sending the JSON read from the stream. The stream is sent as it is read
+	 * and closed at the end.
+	 * @param host
+	 * @param service
+	 * @param body JSON stream
+	 * @param token
+	 * @param parameters
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public String postStream(String host, String service, InputStream body,
+			String token, Map<String, Object> parameters) throws SecurityException, RemoteException {
+		return postJSON(createPost(host, service, createJSONEntity(body), token, parameters));
+	}
+
+	public String putJSON(String host, String service, String token) throws SecurityException, RemoteException {
+		return putJSON(host, service, null, token, null);
+	}
+
+	public String putJSON(String host, String service, String body, String token) throws SecurityException, RemoteException {
+		return putJSON(host, service, body, token, null);
+	}
+
+	public String putJSON(String host, String service, String body, String token, Map<String, Object> parameters)
+			throws SecurityException, RemoteException {
+		return putJSON(createPut(host, service, body, token, parameters));
+	}
+
+	/**
+	 * Perform PUT and read the JSON response directly into an object of the specified class
+	 * @param host
+	 * @param service
+	 * @param body
+	 * @param token
+	 * @param parameters
+	 * @param cls
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public <T> T putJSON(String host, String service, String body,
+			String token, Map<String, Object> parameters, Class<T> cls)
+			throws SecurityException, RemoteException {
+		return readObject(createPut(host, service, body, token, parameters), cls);
+	}
+
+	/**
+	 * Perform PUT sending the object serialized to JSON. The object is written
+	 * directly to the connection, without building the JSON String.
+	 * @param host
+	 * @param service
+	 * @param body object to serialize
+	 * @param token
+	 * @param parameters
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public String putObject(String host, String service, Object body,
+			String token, Map<String, Object> parameters) throws SecurityException, RemoteException {
+		return putJSON(createPut(host, service, compress(new JsonEntity(body), -1), token, parameters));
+	}
+
+	/**
+	 * Perform PUT sending the object serialized to JSON and read the JSON response 
+	 * directly into an object of the specified class
+	 * @param host
+	 * @param service
+	 * @param body object to serialize
+	 * @param token
+	 * @param parameters
+	 * @param cls
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public <T> T putObject(String host, String service, Object body,
+			String token, Map<String, Object> parameters, Class<T> cls) throws SecurityException, RemoteException {
+		return readObject(createPut(host, service, compress(new JsonEntity(body), -1), token, parameters), cls);
+	}
+
+	/**
+	 * Perform PUT sending the JSON read from the stream. The stream is sent as it is read
+	 * and closed at the end.
+	 * @param host
+	 * @param service
+	 * @param body JSON stream
+	 * @param token
+	 * @param parameters
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public String putStream(String host, String service, InputStream body,
+			String token, Map<String, Object> parameters) throws SecurityException, RemoteException {
+		return putJSON(createPut(host, service, createJSONEntity(body), token, parameters));
+	}
+
+	public String deleteJSON(String host, String service, String token) throws SecurityException, RemoteException {
+		return deleteJSON(host, service, token, null);
+	}
+
+	public String deleteJSON(String host, String service, String token, Map<String, Object> parameters) 
+			throws SecurityException, RemoteException {
+		return deleteJSON(createDelete(host, service, token, parameters));
+	}
+
+	String getJSON(final HttpGet get) throws RemoteException {
+		final RequestCoalescer coalescer = getRequestCoalescer();
+		if (coalescer == null) {
+			return fetchJSON(get);
+		}
+		return coalescer.execute(get, Deadline.forCall(getCallTimeout()), new Callable<String>() {
+			public String call() throws Exception {
+				return fetchJSON(get);
+			}
+		});
+	}
+
+	private String fetchJSON(final HttpGet get) throws RemoteException {
+		final ResponseCache cache = getResponseCache();
+		if (cache == null) {
+			return call(get, new StringReader(false));
+		}
+		final String cacheKey = RemoteConnector.requestKey(get);
+		final ResponseCache.CachedResponse cached = cache.lookup(cacheKey, get);
+		if (cached != null && cached.isFresh()) {
+			return cached.body;
+		}
+		int stale = cached == null ? 0 : cache.serveStale(cacheKey, cached);
+		if (stale == 2) {
+			AsyncRemoteConnector.getExecutor().execute(new Runnable() {
+				public void run() {
+					try {
+						revalidate(get, cache, cacheKey, cached);
+					} catch (Exception e) {
+						// the stale response is revalidated again by the next call
+					} finally {
+						cache.refreshed(cacheKey);
+					}
+				}
+			});
+		}
+		if (stale != 0) {
+			return cached.body;
+		}
+		return revalidate(get, cache, cacheKey, cached);
+	}
+
+	private String revalidate(HttpGet get, final ResponseCache cache, final String cacheKey, 
+			final ResponseCache.CachedResponse cached) throws RemoteException {
+		return call(get, new StringReader(false) {
+			@Override
+			String read(HttpUriRequest request, HttpResponse resp) throws IOException, RemoteException {
+				if (cached != null && resp.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+					if (resp.getEntity() != null) {
+						resp.getEntity().consumeContent();
+					}
+					return cache.revalidated(cacheKey, cached, resp);
+				}
+				String response = super.read(request, resp);
+				cache.store(cacheKey, resp, response);
+				return response;
+			}
+		});
+	}
+
+	String postJSON(HttpPost post) throws SecurityException, RemoteException {
+		return call(post, new StringReader(true));
+	}
+
+	String putJSON(HttpPut put) throws SecurityException, RemoteException {
+		return call(put, new StringReader(false));
+	}
+
+	String deleteJSON(HttpDelete delete) throws SecurityException, RemoteException {
+		return call(delete, new StringReader(false));
+	}
+
+	<T> int readStream(HttpUriRequest request, final Class<T> cls, final JsonUtils.ObjectHandler<T> handler)
+			throws SecurityException, RemoteException {
+		Integer count = readEntity(request, new EntityReader<Integer>() {
+			private boolean stopped = false;
+
+			public Integer read(InputStream stream) throws IOException {
+				return JsonUtils.toObjectStream(stream, cls, new JsonUtils.ObjectHandler<T>() {
+					public boolean handle(T object) {
+						stopped = !handler.handle(object);
+						return !stopped;
+					}
+				});
+			}
+
+			@Override
+			boolean isComplete() {
+				return !stopped;
+			}
+		}, false);
+		return count == null ? 0 : count;
+	}
+
+	<T> T readObject(HttpUriRequest request, final Class<T> cls) throws SecurityException, RemoteException {
+		return readEntity(request, new EntityReader<T>() {
+			public T read(InputStream stream) throws IOException {
+				return JsonUtils.toObject(stream, cls);
+			}
+		}, true);
+	}
+
+	<T> T readObject(HttpUriRequest request, final TypeReference<T> type) throws SecurityException, RemoteException {
+		return readEntity(request, new EntityReader<T>() {
+			public T read(InputStream stream) throws IOException {
+				return JsonUtils.toObject(stream, type);
+			}
+		}, true);
+	}
+
+	HttpGet createGet(String host, String service, String token, Map<String, Object> parameters) throws RemoteException {
+		final HttpGet get = new HttpGet(URLBuilder.build(host, service, parameters));
+		get.setHeader(RemoteConnector.RH_ACCEPT, "application/json");
+		authorize(get, token);
+		return get;
+	}
+
+	HttpPost createPost(String host, String service, String body, String token, Map<String, Object> parameters) 
+			throws RemoteException {
+		return createPost(host, service, createJSONEntity(body), token, parameters);
+	}
+
+	HttpPut createPut(String host, String service, String body, String token, Map<String, Object> parameters) 
+			throws RemoteException {
+		return createPut(host, service, body == null ? null : createJSONEntity(body), token, parameters);
+	}
+
+	HttpDelete createDelete(String host, String service, String token, Map<String, Object> parameters) 
+			throws RemoteException {
+		final HttpDelete delete = new HttpDelete(URLBuilder.build(host, service, parameters));
+		delete.setHeader(RemoteConnector.RH_ACCEPT, "application/json");
+		authorize(delete, token);
+		return delete;
+	}
+
+	private HttpPost createPost(String host, String service, HttpEntity entity,
+			String token, Map<String, Object> parameters) throws RemoteException {
+		final HttpPost post = new HttpPost(URLBuilder.build(host, service, parameters));
+		post.setHeader(RemoteConnector.RH_ACCEPT, "application/json");
+		authorize(post, token);
+		post.setEntity(entity);
+		return post;
+	}
+
+	private HttpPut createPut(String host, String service, HttpEntity entity,
+			String token, Map<String, Object> parameters) throws RemoteException {
+		final HttpPut put = new HttpPut(URLBuilder.build(host, service, parameters));
+		put.setHeader(RemoteConnector.RH_ACCEPT, "application/json");
+		authorize(put, token);
+		if (entity != null) {
+			put.setEntity(entity);
+		}
+		return put;
+	}
+
+	private HttpEntity createJSONEntity(String body) throws RemoteException {
+		try {
+			StringEntity input = new StringEntity(body, DEFAULT_CHARSET);
+			input.setContentType("application/json");
+			return compress(input, body.length());
+		} catch (UnsupportedEncodingException e) {
+			throw new RemoteException(e.getMessage(), e);
+		}
+	}
+
+	private HttpEntity createJSONEntity(InputStream body) {
+		InputStreamEntity input = new InputStreamEntity(body, -1);
+		input.setContentType("application/json");
+		input.setChunked(true);
+		return compress(input, -1);
+	}
+
+	/**
+	 * @param entity
+	 * @param length body length, -1 if unknown
+	 * @return the entity compressed with gzip, if enabled and larger than the gzip request threshold
+	 */
+	private HttpEntity compress(HttpEntity entity, long length) {
+		int threshold = getGzipRequestThreshold();
+		if (threshold < 0 || (length >= 0 && length < threshold)) {
+			return entity;
+		}
+		return new GzipCompressingEntity(entity);
+	}
+
+	/**
+	 * Set the <code>Authorization</code> header of the request: with the token if specified,
+	 * with the token of the {@link TokenManager} if set.
+	 * @param request
+	 * @param token
+	 * @throws RemoteException if the managed token cannot be obtained
+	 */
+	private void authorize(HttpRequest request, String token) throws RemoteException {
+		final TokenManager manager = getTokenManager();
+		if (token == null && manager != null) {
+			request.setHeader(manager.getHeader());
+		} else {
+			request.setHeader(RemoteConnector.RH_AUTH_TOKEN, RemoteConnector.bearer(token));
+		}
+	}
+
+	/**
+	 * Execute the request and parse the response entity with the specified reader. 
+	 * Non-OK responses are consumed and converted to exceptions.
+	 * @param request
+	 * @param reader
+	 * @param hedgeable false if the reader cannot be run twice concurrently, e.g. it passes the response to a handler
+	 * @return the parsed response or null if the response has no body
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	private <T> T readEntity(HttpUriRequest request, final EntityReader<T> reader, final boolean hedgeable) 
+			throws SecurityException, RemoteException {
+		return call(request, new ResponseReader<T>() {
+			@Override
+			boolean isHedgeable() {
+				return hedgeable;
+			}
+
+			@Override
+			T read(HttpUriRequest request, HttpResponse resp) throws IOException, RemoteException {
+				if (resp.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+					throw RemoteConnector.statusError(request, resp, false);
+				}
+				HttpEntity entity = resp.getEntity();
+				if (entity == null) {
+					return null;
+				}
+				T result;
+				try {
+					result = reader.read(entity.getContent());
+				} catch (RuntimeException e) {
+					// the connection cannot be reused with the body half read
+					request.abort();
+					throw e;
+				}
+				if (reader.isComplete()) {
+					entity.consumeContent();
+				} else {
+					request.abort();
+				}
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Reads the result from the response body stream
+	 * @param <T>
+	 */
+	private static abstract class EntityReader<T> {
+		abstract T read(InputStream stream) throws IOException;
+
+		/**
+		 * @return false if the reader stopped before the end of the body, that is then discarded 
+		 * closing the connection rather than read to the end
+		 */
+		boolean isComplete() {
+			return true;
+		}
+	}
+
+	/**
+	 * Reads the result from the response, converting errors to exceptions
+	 * @param <T>
+	 */
+	private static abstract class ResponseReader<T> {
+		abstract T read(HttpUriRequest request, HttpResponse resp) throws IOException, RemoteException;
+
+		/**
+		 * @return true if the response of a hedging request can be read concurrently
+		 */
+		boolean isHedgeable() {
+			return true;
+		}
+	}
+
+	/**
+	 * Reads the whole response body as String
+	 */
+	private static class StringReader extends ResponseReader<String> {
+		/** use the &lt;h1&gt; title of the error page as exception message */
+		private final boolean errorTitle;
+
+		public StringReader(boolean errorTitle) {
+			this.errorTitle = errorTitle;
+		}
+
+		@Override
+		String read(HttpUriRequest request, HttpResponse resp) throws IOException, RemoteException {
+			if (resp.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+				throw RemoteConnector.statusError(request, resp, errorTitle);
+			}
+			return resp.getEntity() == null ? null : EntityUtils.toString(resp.getEntity(),DEFAULT_CHARSET);
+		}
+	}
+
+	/**
+	 * Send the request and read the response with the reader, within the {@link Deadline} of the call
+	 * and hedging it if the {@link HedgePolicy} is set and the request is a GET.
+	 * @param request
+	 * @param reader
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	private <T> T call(HttpUriRequest request, ResponseReader<T> reader) throws SecurityException, RemoteException {
+		final Deadline deadline = Deadline.forCall(getCallTimeout());
+		final HedgePolicy policy = getHedgePolicy();
+		if (policy != null && request instanceof HttpGet && reader.isHedgeable()) {
+			return hedge((HttpGet) request, reader, deadline, policy);
+		}
+		return callWithin(request, reader, deadline);
+	}
+
+	/**
+	 * Send the request, aborting it when the deadline expires.
+	 * @param request
+	 * @param reader
+	 * @param deadline null if the call has no time limit
+	 * @return
+	 * @throws DeadlineExceededException if the deadline expired before the call completed
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	private <T> T callWithin(HttpUriRequest request, ResponseReader<T> reader, Deadline deadline) 
+			throws SecurityException, RemoteException {
+		if (deadline == null) {
+			request.getParams().removeParameter(Deadline.PARAM);
+			return authorizedCall(request, reader);
+		}
+		if (deadline.isExpired()) {
+			throw new DeadlineExceededException(RemoteConnector.hostOf(request.getURI()), null);
+		}
+		request.getParams().setParameter(Deadline.PARAM, deadline);
+		Future<?> abort = deadline.abortOnExpiry(request);
+		try {
+			return authorizedCall(request, reader);
+		} catch (RemoteException e) {
+			// a timeout shortened to the deadline may end within the clock resolution of its expiry
+			if (deadline.getRemaining() == 0 && !(e instanceof DeadlineExceededException)) {
+				throw new DeadlineExceededException(RemoteConnector.hostOf(request.getURI()), e);
+			}
+			throw e;
+		} finally {
+			abort.cancel(false);
+		}
+	}
+
+	/**
+	 * Send the GET and, if it does not complete within the hedging delay of the host, an identical
+	 * request: the first successful response is returned and the other request aborted.
+	 * @param get
+	 * @param reader
+	 * @param deadline
+	 * @param policy
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	private <T> T hedge(HttpGet get, ResponseReader<T> reader, Deadline deadline, HedgePolicy policy) 
+			throws SecurityException, RemoteException {
+		String host = RemoteConnector.hostOf(get.getURI());
+		long delay = policy.delay(host);
+		long start = System.nanoTime();
+		if (delay < 0) {
+			T result = callWithin(get, reader, deadline);
+			policy.completed(host, System.nanoTime() - start, false);
+			return result;
+		}
+		Hedge<T> hedge = new Hedge<T>(get, reader, deadline, policy);
+		Future<?> timer = AsyncRemoteConnector.getScheduler().schedule(hedge.launcher(), delay, TimeUnit.MICROSECONDS);
+		T result;
+		try {
+			result = callWithin(get, reader, deadline);
+		} catch (RemoteException e) {
+			if (!hedge.recovered(timer)) {
+				throw e;
+			}
+			policy.completed(host, System.nanoTime() - start, true);
+			return hedge.result;
+		} catch (SecurityException e) {
+			if (!hedge.recovered(timer)) {
+				throw e;
+			}
+			policy.completed(host, System.nanoTime() - start, true);
+			return hedge.result;
+		}
+		hedge.primaryCompleted(timer);
+		policy.completed(host, System.nanoTime() - start, false);
+		return result;
+	}
+
+	/**
+	 * Hedging request of a GET, sent on the asynchronous executor once the timer expires 
+	 * unless the GET has completed meanwhile
+	 * @param <T>
+	 */
+	private class Hedge<T> implements Runnable {
+		private static final int PENDING = 0;
+		private static final int LAUNCHED = 1;
+		private static final int RUNNING = 2;
+		private static final int CLOSED = 3;
+
+		private final HttpGet primary;
+		private final HttpGet copy;
+		private final ResponseReader<T> reader;
+		private final Deadline deadline;
+		private final HedgePolicy policy;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		/** set by the first request completing successfully, that aborts the other */
+		private final AtomicBoolean decided = new AtomicBoolean();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile boolean succeeded;
+		private volatile T result;
+
+		public Hedge(HttpGet primary, ResponseReader<T> reader, Deadline deadline, HedgePolicy policy) {
+			this.primary = primary;
+			this.copy = new HttpGet(primary.getURI());
+			copy.setHeaders(primary.getAllHeaders());
+			this.reader = reader;
+			this.deadline = deadline;
+			this.policy = policy;
+		}
+
+		public void run() {
+			if (!state.compareAndSet(LAUNCHED, RUNNING)) {
+				// the primary request completed while this one was queued
+				done.countDown();
+				return;
+			}
+			try {
+				result = callWithin(copy, reader, deadline);
+				succeeded = true;
+				if (decided.compareAndSet(false, true)) {
+					primary.abort();
+				}
+			} catch (Exception e) {
+				// the failure of the primary request is reported
+			} finally {
+				done.countDown();
+			}
+		}
+
+		Runnable launcher() {
+			return new Runnable() {
+				public void run() {
+					if (!state.compareAndSet(PENDING, LAUNCHED)) {
+						return;
+					}
+					try {
+						if (policy.hedge()) {
+							AsyncRemoteConnector.getExecutor().execute(Hedge.this);
+							return;
+						}
+					} catch (RejectedExecutionException e) {
+						// not hedged
+					}
+					done.countDown();
+				}
+			};
+		}
+
+		/**
+		 * The primary request succeeded: abort the hedging request, if sent
+		 * @param timer
+		 */
+		void primaryCompleted(Future<?> timer) {
+			if (state.compareAndSet(PENDING, CLOSED)) {
+				timer.cancel(false);
+			} else if (!state.compareAndSet(LAUNCHED, CLOSED) && decided.compareAndSet(false, true)) {
+				copy.abort();
+			}
+		}
+
+		/**
+		 * The primary request failed: wait for the hedging request if running, 
+		 * at most until the deadline of the call
+		 * @param timer
+		 * @return true if the hedging request succeeded
+		 */
+		boolean recovered(Future<?> timer) {
+			if (state.compareAndSet(PENDING, CLOSED)) {
+				timer.cancel(false);
+				return false;
+			}
+			if (state.compareAndSet(LAUNCHED, CLOSED)) {
+				// still queued on the executor
+				return false;
+			}
+			try {
+				if (deadline == null) {
+					done.await();
+				} else if (!done.await(deadline.getRemaining(), TimeUnit.MILLISECONDS)) {
+					copy.abort();
+					return false;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				copy.abort();
+				return false;
+			}
+			return succeeded;
+		}
+	}
+
+	/**
+	 * Send the request and read the response with the reader.
+	 * If the request is authorized with the token of the {@link TokenManager} and rejected with 401,
+	 * the token is refreshed and the request sent again.
+	 * @param request
+	 * @param reader
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	private <T> T authorizedCall(HttpUriRequest request, ResponseReader<T> reader) throws SecurityException, RemoteException {
+		final TokenManager manager = getTokenManager();
+		Header auth = request.getFirstHeader(RemoteConnector.RH_AUTH_TOKEN);
+		if (manager == null || !(auth instanceof TokenManager.TokenHeader)) {
+			return callWithPolicy(request, reader);
+		}
+		try {
+			return callWithPolicy(request, reader);
+		} catch (RemoteSecurityException e) {
+			if (e.getStatus() != HttpStatus.SC_UNAUTHORIZED || !RemoteConnector.isRepeatable(request)) {
+				throw e;
+			}
+			request.setHeader(manager.refresh((TokenManager.TokenHeader) auth));
+			return callWithPolicy(request, reader);
+		}
+	}
+
+	/**
+	 * Send the request applying the {@link RetryPolicy} if set.
+	 * @param request
+	 * @param reader
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	private <T> T callWithPolicy(HttpUriRequest request, ResponseReader<T> reader) throws SecurityException, RemoteException {
+		final RetryPolicy policy = getRetryPolicy();
+		if (policy == null) {
+			return attempt(request, reader, null);
+		}
+		CircuitBreaker breaker = policy.acquire(request);
+		boolean retryable = policy.isRetryable(request);
+		Deadline deadline = deadlineOf(request);
+		try {
+			for (int retry = 0;; retry++) {
+				try {
+					T result = attempt(request, reader, policy);
+					breaker.onSuccess();
+					return result;
+				} catch (ServerFailure e) {
+					// requests aborted by the caller, the deadline or a faster hedge are not failures of the host
+					boolean aborted = request.isAborted();
+					if (!aborted) {
+						breaker.onFailure();
+					}
+					if (aborted || !retryable || !breaker.allowRequest() || !policy.retry(retry, deadline)) {
+						if (e.getCause() instanceof RemoteException) {
+							throw (RemoteException) e.getCause();
+						}
+						throw new RemoteException(e.getMessage(), e.getCause());
+					}
+				} catch (BulkheadFullException e) {
+					// rejected locally without contacting the host
+					throw e;
+				} catch (CircuitOpenException e) {
+					throw e;
+				} catch (RemoteException e) {
+					if (request.isAborted() || e.getCause() instanceof InterruptedException) {
+						// neither a failure nor a success of the host: a probe is released below
+					} else if (e.getCause() instanceof IOException) {
+						breaker.onFailure();
+					} else {
+						breaker.onSuccess();
+					}
+					throw e;
+				} catch (SecurityException e) {
+					breaker.onSuccess();
+					throw e;
+				}
+			}
+		} finally {
+			// a probe ended without an outcome, aborted or failed with a runtime exception, must not keep the circuit half-open
+			breaker.release();
+		}
+	}
+
+	/**
+	 * Perform a single attempt of the call, within the limits of the {@link Bulkhead} if set.
+	 * @param request
+	 * @param reader
+	 * @param policy
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	private <T> T attempt(HttpUriRequest request, ResponseReader<T> reader, RetryPolicy policy) throws SecurityException, RemoteException {
+		final Bulkhead limiter = getBulkhead();
+		if (limiter == null) {
+			return perform(request, reader, policy);
+		}
+		Bulkhead.HostLimit limit = limiter.acquire(RemoteConnector.hostOf(request.getURI()), deadlineOf(request));
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			T result = perform(request, reader, policy);
+			failed = false;
+			return result;
+		} catch (RemoteException e) {
+			failed = (e instanceof ServerFailure || e.getCause() instanceof IOException) && !request.isAborted();
+			throw e;
+		} catch (SecurityException e) {
+			failed = false;
+			throw e;
+		} finally {
+			limit.release(System.nanoTime() - start, failed);
+		}
+	}
+
+	/**
+	 * Perform a single attempt of the call. The registered {@link RemoteCallListener}, if any, is notified around it.
+	 * @param request
+	 * @param reader
+	 * @param policy if not null, connection errors and temporary server failures are thrown 
+	 * as {@link ServerFailure} leaving the request reusable
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	private <T> T perform(HttpUriRequest request, ResponseReader<T> reader, RetryPolicy policy) throws SecurityException, RemoteException {
+		final RemoteCallListener listener = getCallListener();
+		if (listener == null) {
+			try {
+				return reader.read(request, execute(request, policy));
+			} catch (IOException e) {
+				request.abort();
+				throw new RemoteException(e.getMessage(), e);
+			} catch (ParseException e) {
+				throw new RemoteException(e.getMessage(), e);
+			}
+		}
+
+		listener.callStarted(request);
+		final RemoteCallInfo info = new RemoteCallInfo(request);
+		Exception failure = null;
+		currentCall.set(info);
+		try {
+			HttpResponse resp = execute(request, policy);
+			currentCall.remove();
+			info.responseReceived(resp.getStatusLine().getStatusCode());
+			if (resp.getEntity() != null) {
+				resp.setEntity(new CountingEntity(resp.getEntity(), info));
+			}
+			return reader.read(request, resp);
+		} catch (IOException e) {
+			request.abort();
+			RemoteException re = new RemoteException(e.getMessage(), e);
+			failure = re;
+			throw re;
+		} catch (ParseException e) {
+			RemoteException re = new RemoteException(e.getMessage(), e);
+			failure = re;
+			throw re;
+		} catch (RemoteException e) {
+			failure = e;
+			throw e;
+		} catch (SecurityException e) {
+			failure = e;
+			throw e;
+		} finally {
+			currentCall.remove();
+			PooledClient client = pooledClient;
+			info.completed(failure, client == null ? -1 : client.getConnectionsInPool());
+			listener.callCompleted(info);
+		}
+	}
+
+	private HttpResponse execute(HttpUriRequest request, RetryPolicy policy) throws IOException, ServerFailure {
+		if (policy == null) {
+			return send(request);
+		}
+		HttpResponse resp;
+		try {
+			resp = send(request);
+		} catch (IOException e) {
+			throw new ServerFailure(e.getMessage(), e);
+		}
+		if (policy.isFailure(resp.getStatusLine().getStatusCode())) {
+			HttpStatusException error = RemoteConnector.statusError(request, resp, request instanceof HttpPost);
+			throw new ServerFailure(error.getMessage(), error);
+		}
+		return resp;
+	}
+
+	/**
+	 * Send the request with the transport, if set, or with the pooled client. The timeouts,
+	 * shortened to the time left before the deadline, and the client type are passed as 
+	 * request parameters, overriding those of the pool.
+	 * @param request
+	 * @return
+	 * @throws IOException
+	 */
+	private HttpResponse send(HttpUriRequest request) throws IOException {
+		HttpParams params = request.getParams();
+		int connect, read;
+		if (hostTimeouts.isEmpty()) {
+			connect = getConnectTimeout();
+			read = getReadTimeout();
+		} else {
+			String host = RemoteConnector.hostOf(request.getURI());
+			connect = getConnectTimeout(host);
+			read = getReadTimeout(host);
+		}
+		int pool = getPoolTimeout();
+		Deadline deadline = deadlineOf(request);
+		if (deadline != null) {
+			if (deadline.isExpired()) {
+				throw new IOException("Deadline exceeded");
+			}
+			connect = deadline.clamp(connect);
+			read = deadline.clamp(read);
+			pool = deadline.clamp(pool);
+		}
+		HttpConnectionParams.setConnectionTimeout(params, connect);
+		HttpConnectionParams.setSoTimeout(params, read);
+		ConnManagerParams.setTimeout(params, pool);
+		params.setParameter(CLIENT_TYPE_PARAM, getClientType());
+		if (isCompressionEnabled() && !request.containsHeader(RemoteConnector.RH_ACCEPT_ENCODING)) {
+			request.addHeader(RemoteConnector.RH_ACCEPT_ENCODING, "gzip, deflate");
+		}
+		final Transport engine = getTransport();
+		if (engine != null) {
+			return engine.execute(request);
+		}
+		PooledClient pooled = acquirePooledClient();
+		try {
+			return pooled.client.execute(request);
+		} finally {
+			pooled.release();
+		}
+	}
+
+	/**
+	 * @param request
+	 * @return the deadline of the call, null if none
+	 */
+	private static Deadline deadlineOf(HttpUriRequest request) {
+		return (Deadline) request.getParams().getParameter(Deadline.PARAM);
+	}
+
+	/**
+	 * Connection error or temporary server failure, that can be retried.
+	 */
+	private static class ServerFailure extends RemoteException {
+		private static final long serialVersionUID = 3000367343271773858L;
+
+		public ServerFailure(String msg, Throwable cause) {
+			super(msg, cause);
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	/*
+	 * Custom classes
+	 */
+	/**
+	 * Thread-safe {@link HttpClient} backed by a pool of keep-alive connections,
+	 * bound to the client type and pool size it has been created with.
+	 */
+	private static class PooledClient {
+		private final CLIENT_TYPE type;
+		private final int maxTotal;
+		private final int maxPerRoute;
+		private final HttpClient client;
+		private volatile long lastEviction = System.currentTimeMillis();
+
+		public PooledClient(RemoteClient owner) {
+			this.type = owner.getClientType();
+			this.maxTotal = owner.getMaxTotalConnections();
+			this.maxPerRoute = owner.getMaxConnectionsPerRoute();
+
+			SchemeRegistry registry = RemoteConnector.getSchemeRegistry(type);
+			HttpParams params = new BasicHttpParams();
+			HttpConnectionParams.setConnectionTimeout(params, owner.getConnectTimeout());
+			HttpConnectionParams.setSoTimeout(params, owner.getReadTimeout());
+			HttpConnectionParams.setStaleCheckingEnabled(params, true);
+			ConnManagerParams.setTimeout(params, owner.getPoolTimeout());
+			ConnManagerParams.setMaxTotalConnections(params, maxTotal);
+			ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxPerRoute));
+			ClientConnectionManager ccm = new TrackingConnManager(params, registry);
+			DefaultHttpClient httpClient = new DefaultHttpClient(ccm, params);
+			httpClient.setHttpRequestRetryHandler(new AbortAwareRetryHandler());
+			httpClient.addResponseInterceptor(new HttpResponseInterceptor() {
+				public void process(HttpResponse response, HttpContext context) {
+					if (response.getEntity() != null) {
+						response.setEntity(DecompressingEntity.wrap(response.getEntity()));
+					}
+				}
+			});
+			this.client = httpClient;
+		}
+
+		public int getConnectionsInPool() {
+			return ((ThreadSafeClientConnManager) client.getConnectionManager()).getConnectionsInPool();
+		}
+
+		public boolean matches(RemoteClient owner) {
+			return type == owner.getClientType() && maxTotal == owner.getMaxTotalConnections() 
+					&& maxPerRoute == owner.getMaxConnectionsPerRoute();
+		}
+
+		/**
+		 * Close expired and idle connections, at most twice per idle timeout period
+		 * @param idleTimeout
+		 */
+		public void evictIdleConnections(int idleTimeout) {
+			long now = System.currentTimeMillis();
+			if (now - lastEviction < idleTimeout / 2) {
+				return;
+			}
+			lastEviction = now;
+			ClientConnectionManager ccm = client.getConnectionManager();
+			ccm.closeExpiredConnections();
+			ccm.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+		}
+
+		public void shutdown() {
+			client.getConnectionManager().shutdown();
+		}
+
+		/**
+		 * Register a call using the client, so that it is not closed if retired meanwhile
+		 * @return false if the client has been retired and closed
+		 */
+		public boolean acquire() {
+			return ((TrackingConnManager) client.getConnectionManager()).reference();
+		}
+
+		public void release() {
+			((TrackingConnManager) client.getConnectionManager()).unreference();
+		}
+
+		/**
+		 * Close the idle connections, and the others as soon as they are released
+		 */
+		public void retire() {
+			((TrackingConnManager) client.getConnectionManager()).retire();
+		}
+	}
+
+	/**
+	 * Connection manager reporting the time spent waiting for a pooled connection and
+	 * opening new connections to the call in progress on the current thread, if tracked.
+	 * Once retired, it stops pooling connections and shuts down when the last one is released
+	 * and no call is about to request one.
+	 */
+	private static class TrackingConnManager extends ThreadSafeClientConnManager {
+		/** calls using the manager plus leased connections, -1 once shut down after retirement */
+		private final AtomicInteger references = new AtomicInteger();
+		private volatile boolean retired = false;
+
+		public TrackingConnManager(HttpParams params, SchemeRegistry registry) {
+			super(params, registry);
+		}
+
+		@Override
+		protected ClientConnectionOperator createConnectionOperator(SchemeRegistry registry) {
+			return new DefaultClientConnectionOperator(registry) {
+				@Override
+				public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local,
+						HttpContext context, HttpParams params) throws IOException {
+					RemoteCallInfo info = currentCall.get();
+					if (info == null) {
+						super.openConnection(conn, target, local, context, params);
+						return;
+					}
+					long start = System.nanoTime();
+					try {
+						super.openConnection(conn, target, local, context, params);
+					} finally {
+						info.connected(System.nanoTime() - start);
+					}
+				}
+			};
+		}
+
+		@Override
+		public ClientConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+			final ClientConnectionRequest request = super.requestConnection(route, state);
+			final RemoteCallInfo info = currentCall.get();
+			return new ClientConnectionRequest() {
+				public ManagedClientConnection getConnection(long timeout, TimeUnit unit) 
+						throws InterruptedException, ConnectionPoolTimeoutException {
+					long start = System.nanoTime();
+					try {
+						ManagedClientConnection conn = request.getConnection(timeout, unit);
+						while (!conn.isOpen() && conn.getRoute() != null) {
+							// closed while idle in the pool but still tracked as open: discard it and lease another
+							conn.unmarkReusable();
+							TrackingConnManager.super.releaseConnection(conn, 0, TimeUnit.MILLISECONDS);
+							conn = TrackingConnManager.super.requestConnection(route, state).getConnection(timeout, unit);
+						}
+						references.incrementAndGet();
+						return conn;
+					} finally {
+						if (info != null) {
+							info.acquired(System.nanoTime() - start);
+						}
+					}
+				}
+
+				public void abortRequest() {
+					request.abortRequest();
+				}
+			};
+		}
+
+		@Override
+		public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit) {
+			try {
+				super.releaseConnection(conn, validDuration, timeUnit);
+			} finally {
+				unreference();
+			}
+		}
+
+		boolean reference() {
+			while (true) {
+				int n = references.get();
+				if (n < 0) {
+					return false;
+				}
+				if (references.compareAndSet(n, n + 1)) {
+					return true;
+				}
+			}
+		}
+
+		void unreference() {
+			if (references.decrementAndGet() == 0 && retired && references.compareAndSet(0, -1)) {
+				shutdown();
+			} else if (retired) {
+				closeIdleConnections(0, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		void retire() {
+			retired = true;
+			closeIdleConnections(0, TimeUnit.MILLISECONDS);
+			if (references.compareAndSet(0, -1)) {
+				shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Response entity counting the bytes read by the caller
+	 */
+	private static class CountingEntity extends HttpEntityWrapper implements ConnectionReleaseTrigger {
+		private final RemoteCallInfo info;
+
+		public CountingEntity(HttpEntity entity, RemoteCallInfo info) {
+			super(entity);
+			this.info = info;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return new FilterInputStream(wrappedEntity.getContent()) {
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0) {
+						info.received(1);
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = super.read(b, off, len);
+					if (n > 0) {
+						info.received(n);
+					}
+					return n;
+				}
+			};
+		}
+
+		public void releaseConnection() throws IOException {
+			RemoteConnector.releaseConnection(wrappedEntity);
+		}
+
+		public void abortConnection() throws IOException {
+			RemoteConnector.abortConnection(wrappedEntity);
+		}
+	}
+
+	/**
+	 * Default retry policy, that does not resend requests aborted by the caller
+	 * or executed by an interrupted thread
+	 */
+	private static class AbortAwareRetryHandler extends DefaultHttpRequestRetryHandler {
+		@Override
+		public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+			if (Thread.currentThread().isInterrupted()) {
+				return false;
+			}
+			Object request = context.getAttribute(ExecutionContext.HTTP_REQUEST);
+			if (request instanceof RequestWrapper) {
+				request = ((RequestWrapper) request).getOriginal();
+			}
+			if (request instanceof HttpUriRequest && ((HttpUriRequest) request).isAborted()) {
+				return false;
+			}
+			return super.retryRequest(exception, executionCount, context);
+		}
+	}
+}
@@ -17,56 +17,60 @@
 package eu.trentorise.smartcampus.network;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.MalformedURLException;
+import java.net.InetAddress;
 import java.net.Socket;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.net.URLEncoder;
 import java.net.UnknownHostException;
+import java.net.URI;
+import java.nio.ByteBuffer;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.List;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.ParseException;
-import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.AbstractVerifier;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.conn.ssl.X509HostnameVerifier;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
-import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.type.TypeReference;
 
 /**
- * Utility class to perform REST service invocation
+ * Utility class to perform REST service invocation. The calls are performed by the
+ * {@link #getDefaultClient() default client}, configured with the static fields and setters;
+ * a {@link RemoteClient} can be created for services needing different settings.
  * 
  * @author raman
  * 
@@ -80,7 +84,7 @@ public class RemoteConnector {
 	 */
 	public enum CLIENT_TYPE {CLIENT_NORMAL, CLIENT_WILDCARD, CLIENT_ACCEPTALL};
 	
-	private static CLIENT_TYPE clientType = CLIENT_TYPE.CLIENT_NORMAL;
+	private static volatile CLIENT_TYPE clientType = CLIENT_TYPE.CLIENT_NORMAL;
 	
 	/**
 	 * 
@@ -90,31 +94,97 @@ public class RemoteConnector {
 	protected static final String RH_ACCEPT = "Accept";
 	/** */
 	protected static final String RH_AUTH_TOKEN = "Authorization";
+	/** */
+	protected static final String RH_ACCEPT_ENCODING = "Accept-Encoding";
 
 	//
 	/** Timeout (in ms) we specify for each http request */
-	public static int HTTP_REQUEST_TIMEOUT_MS = 30 * 1000;
+	public static volatile int HTTP_REQUEST_TIMEOUT_MS = 30 * 1000;
+	/** Max total time (in ms) of each call, retries included, 0 for no limit */
+	public static volatile int HTTP_CALL_TIMEOUT_MS = 0;
+	/** Max number of pooled connections shared by all the hosts */
+	public static volatile int HTTP_MAX_TOTAL_CONNECTIONS = 100;
+	/** Max number of pooled connections for a single host */
+	public static volatile int HTTP_MAX_CONNECTIONS_PER_ROUTE = 20;
+	/** Time (in ms) after which an unused pooled connection is closed */
+	public static volatile int HTTP_IDLE_CONNECTION_TIMEOUT_MS = 60 * 1000;
+	/** Ask for gzip or deflate compressed responses, decompressed while they are read */
+	public static volatile boolean HTTP_COMPRESSION_ENABLED = true;
+	/** Min size (in chars) of the request bodies compressed with gzip, -1 to never compress them */
+	public static volatile int HTTP_GZIP_REQUEST_THRESHOLD = -1;
+	/** 
+	 * Max number of TLS sessions cached for resumption, 0 for no limit. Applied to the session 
+	 * cache of every client type, that for {@link CLIENT_TYPE#CLIENT_NORMAL} is the one 
+	 * of the default SSL context of the JVM
+	 */
+	public static volatile int HTTPS_SESSION_CACHE_SIZE = 1000;
+	/** Time (in s) a cached TLS session can be resumed, 0 for no limit, applied as {@link #HTTPS_SESSION_CACHE_SIZE} */
+	public static volatile int HTTPS_SESSION_TIMEOUT_S = 24 * 3600;
+	/** Max number of bytes of an error response body kept in the exception */
+	public static volatile int HTTP_ERROR_BODY_MAX = 4096;
+	/** Fill the stack trace of the exceptions raised by error responses and rejected calls */
+	public static volatile boolean HTTP_ERROR_STACK_TRACES = true;
+
+	/** optional cache of GET responses */
+	private static volatile ResponseCache responseCache = null;
+
+	/** optional coalescing of identical concurrent GETs */
+	private static volatile RequestCoalescer requestCoalescer = null;
+
+	/** optional listener notified around each call */
+	private static volatile RemoteCallListener callListener = null;
+
+	/** optional retry and circuit breaker policy */
+	private static volatile RetryPolicy retryPolicy = null;
+
+	/** optional hedging of the slow GETs */
+	private static volatile HedgePolicy hedgePolicy = null;
+
+	/** optional limit of the concurrent calls to each host */
+	private static volatile Bulkhead bulkhead = null;
+
+	/** SSL socket factories of the client types, created once and shared by the clients */
+	private static final Map<CLIENT_TYPE, SSLSocketFactory> sslSocketFactories = new EnumMap<CLIENT_TYPE, SSLSocketFactory>(CLIENT_TYPE.class);
+	private static SSLContext acceptAllContext = null;
+	private static final AtomicLong tlsHandshakes = new AtomicLong();
+	private static final AtomicLong tlsResumed = new AtomicLong();
+
+	/** optional source of the tokens of the calls performed without token */
+	private static volatile TokenManager tokenManager = null;
+
+	/** optional HTTP engine replacing the shared client */
+	private static volatile Transport transport = null;
+
+	/** last credentials hashed in a request key, with their hash: most calls reuse the same token */
+	private static volatile String[] lastCredentials = null;
+
+	/** client of the static methods configured with the static fields and setters */
+	private static final RemoteClient staticClient = new StaticClient();
+
+	/** client replacing the static configuration, if set */
+	private static volatile RemoteClient defaultClient = null;
 
 	protected static HttpClient getHttpClient() {
-		HttpClient httpClient = null;
-		switch (clientType) {
-		case CLIENT_WILDCARD:
-			httpClient = getWildcartHttpClient(null);
-			break;
-		case CLIENT_ACCEPTALL:
-			httpClient = getAcceptAllHttpClient(null);
-			break;
-		default:
-			httpClient = getDefaultHttpClient(null);
-		}
-		
-		final HttpParams params = httpClient.getParams();
-		HttpConnectionParams.setConnectionTimeout(params, HTTP_REQUEST_TIMEOUT_MS);
-		HttpConnectionParams.setSoTimeout(params, HTTP_REQUEST_TIMEOUT_MS);
-		ConnManagerParams.setTimeout(params, HTTP_REQUEST_TIMEOUT_MS);
-		return httpClient;
+		return getDefaultClient().getHttpClient();
 	}
 
+	/**
+	 * Use the client for the static calls, instead of the static configuration. The settings
+	 * of the client are published safely to all the threads and cannot be changed afterwards,
+	 * while the static fields and setters are ignored until the client is removed.
+	 * @param client the client to use, null to use the static configuration again
+	 */
+	public static void setDefaultClient(RemoteClient client) {
+		defaultClient = client;
+	}
+
+	/**
+	 * @return the client performing the static calls
+	 */
+	public static RemoteClient getDefaultClient() {
+		RemoteClient client = defaultClient;
+		return client != null ? client : staticClient;
+	}
 	/**
 	 * Set the way the SSL certificates are managed for the HTTP calls. 
 	 * @param type
@@ -122,41 +192,335 @@ public class RemoteConnector {
 	public static void setClientType(CLIENT_TYPE type) {
 		clientType = type;
 	}
+
+	static CLIENT_TYPE getClientType() {
+		return clientType;
+	}
+
+	/**
+	 * Use the tokens of the manager for the calls performed with a null token.
+	 * @param manager the token manager, null to send the null token as is
+	 */
+	public static void setTokenManager(TokenManager manager) {
+		tokenManager = manager;
+	}
+
+	/**
+	 * @return the token manager in use, null if none
+	 */
+	public static TokenManager getTokenManager() {
+		return tokenManager;
+	}
+
+	/**
+	 * Select the HTTP engine sending the requests.
+	 * @param engine the transport to use, null for the default pooled {@link HttpClient}
+	 */
+	public static void setTransport(Transport engine) {
+		transport = engine;
+	}
+
+	/**
+	 * @return the transport in use, null if the default pooled {@link HttpClient} is used
+	 */
+	public static Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Enable caching of the responses to the <code>getJSON</code> calls returning a String.
+	 * @param cache the cache to use, null to disable caching
+	 */
+	public static void setResponseCache(ResponseCache cache) {
+		responseCache = cache;
+	}
+
+	/**
+	 * @return the response cache in use, null if caching is disabled
+	 */
+	public static ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * Enable coalescing of identical concurrent <code>getJSON</code> calls returning a String.
+	 * @param coalescer the coalescer to use, null to disable coalescing
+	 */
+	public static void setRequestCoalescer(RequestCoalescer coalescer) {
+		requestCoalescer = coalescer;
+	}
+
+	/**
+	 * @return the request coalescer in use, null if coalescing is disabled
+	 */
+	public static RequestCoalescer getRequestCoalescer() {
+		return requestCoalescer;
+	}
+
+	/**
+	 * Register a listener notified around each call, e.g. a {@link RemoteCallStats}.
+	 * @param listener the listener, null to disable notifications
+	 */
+	public static void setCallListener(RemoteCallListener listener) {
+		callListener = listener;
+	}
+
+	/**
+	 * @return the registered call listener, null if none
+	 */
+	public static RemoteCallListener getCallListener() {
+		return callListener;
+	}
+
+	/**
+	 * Enable retries of the failed calls and circuit breaking of the failing hosts.
+	 * @param policy the policy to apply, null to disable retries
+	 */
+	public static void setRetryPolicy(RetryPolicy policy) {
+		retryPolicy = policy;
+	}
+
+	/**
+	 * @return the retry policy in use, null if retries are disabled
+	 */
+	public static RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Send a second request when a GET is slower than usual, using the first response.
+	 * @param policy the policy to apply, null to disable hedging
+	 */
+	public static void setHedgePolicy(HedgePolicy policy) {
+		hedgePolicy = policy;
+	}
+
+	/**
+	 * @return the hedging policy in use, null if hedging is disabled
+	 */
+	public static HedgePolicy getHedgePolicy() {
+		return hedgePolicy;
+	}
+
+	/**
+	 * Limit the number of concurrent calls to each host.
+	 * @param limiter the bulkhead to apply, null to disable limits
+	 */
+	public static void setBulkhead(Bulkhead limiter) {
+		bulkhead = limiter;
+	}
+
+	/**
+	 * @return the bulkhead in use, null if the calls are not limited
+	 */
+	public static Bulkhead getBulkhead() {
+		return bulkhead;
+	}
+
+	/**
+	 * @return number of successful full TLS handshakes performed
+	 */
+	public static long getTlsHandshakeCount() {
+		return tlsHandshakes.get();
+	}
+
+	/**
+	 * @return number of TLS connections established resuming a cached session
+	 */
+	public static long getTlsResumedCount() {
+		return tlsResumed.get();
+	}
+
+	/**
+	 * Close all the pooled connections of the default client. The pool is recreated on the next call.
+	 */
+	public static void shutdown() {
+		staticClient.shutdown();
+		RemoteClient client = defaultClient;
+		if (client != null) {
+			client.shutdown();
+		}
+	}
 	
 	public static String getJSON(String host, String service, String token)
 			throws SecurityException, RemoteException {
-		return getJSON(host, service, token, null);
+		return getDefaultClient().getJSON(host, service, token);
 	}
 
 	public static String getJSON(String host, String service, String token,
 			Map<String, Object> parameters) throws RemoteException {
-		final HttpResponse resp;
+		return getDefaultClient().getJSON(host, service, token, parameters);
+	}
+
+	static String getJSON(HttpGet get) throws RemoteException {
+		return getDefaultClient().getJSON(get);
+	}
+
+	/**
+	 * Perform GET and read the JSON response directly into an object of the specified class,
+	 * without buffering the response body.
+	 * @param host
+	 * @param service
+	 * @param token
+	 * @param parameters
+	 * @param cls
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public static <T> T getJSON(String host, String service, String token,
+			Map<String, Object> parameters, Class<T> cls) throws SecurityException, RemoteException {
+		return getDefaultClient().getJSON(host, service, token, parameters, cls);
+	}
+
+	/**
+	 * Perform GET and read the JSON response directly into an object of the specified generic type,
+	 * without buffering the response body.
+	 * @param host
+	 * @param service
+	 * @param token
+	 * @param parameters
+	 * @param type
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public static <T> T getJSON(String host, String service, String token,
+			Map<String, Object> parameters, TypeReference<T> type) throws SecurityException, RemoteException {
+		return getDefaultClient().getJSON(host, service, token, parameters, type);
+	}
+
+	/**
+	 * Perform GET of a JSON array and pass its elements to the handler one by one,
+	 * as they are read from the response. If the handler stops the reading or throws an exception,
+	 * the rest of the response is discarded closing the connection.
+	 * @param host
+	 * @param service
+	 * @param token
+	 * @param parameters
+	 * @param cls array element class
+	 * @param handler
+	 * @return number of elements read
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public static <T> int getJSONStream(String host, String service, String token,
+			Map<String, Object> parameters, final Class<T> cls, final JsonUtils.ObjectHandler<T> handler)
+			throws SecurityException, RemoteException {
+		return getDefaultClient().getJSONStream(host, service, token, parameters, cls, handler);
+	}
+
+	static <T> int readStream(HttpUriRequest request, Class<T> cls, JsonUtils.ObjectHandler<T> handler)
+			throws SecurityException, RemoteException {
+		return getDefaultClient().readStream(request, cls, handler);
+	}
+
+	static HttpGet createGet(String host, String service, String token,
+			Map<String, Object> parameters) throws RemoteException {
+		return getDefaultClient().createGet(host, service, token, parameters);
+	}
+
+	static <T> T readObject(HttpUriRequest request, Class<T> cls) throws SecurityException, RemoteException {
+		return getDefaultClient().readObject(request, cls);
+	}
+
+	static <T> T readObject(HttpUriRequest request, TypeReference<T> type) throws SecurityException, RemoteException {
+		return getDefaultClient().readObject(request, type);
+	}
+
+	/**
+	 * Read the beginning of the error response and release the connection.
+	 * @param request
+	 * @param resp
+	 * @param errorTitle use the &lt;h1&gt; title of the error page as exception message
+	 * @return the exception to throw
+	 * @throws RemoteSecurityException if the status is 401 or 403
+	 * @throws IOException
+	 */
+	static HttpStatusException statusError(HttpUriRequest request, HttpResponse resp, boolean errorTitle) throws IOException {
+		ErrorResponse error = ErrorResponse.read(request, resp);
+		if (error.status == HttpStatus.SC_FORBIDDEN || error.status == HttpStatus.SC_UNAUTHORIZED) {
+			throw new RemoteSecurityException(error);
+		}
+		return new HttpStatusException(error, errorTitle);
+	}
+
+	/**
+	 * Consume the rest of the entity, releasing the connection to be reused.
+	 * @param entity
+	 * @throws IOException
+	 */
+	static void releaseConnection(HttpEntity entity) throws IOException {
+		if (entity instanceof ConnectionReleaseTrigger) {
+			((ConnectionReleaseTrigger) entity).releaseConnection();
+		} else {
+			entity.consumeContent();
+		}
+	}
+
+	/**
+	 * Close the connection of the entity without reading the rest of it. Unlike aborting 
+	 * the request, this leaves the request reusable.
+	 * @param entity
+	 * @throws IOException
+	 */
+	static void abortConnection(HttpEntity entity) throws IOException {
+		if (entity instanceof ConnectionReleaseTrigger) {
+			((ConnectionReleaseTrigger) entity).abortConnection();
+		} else {
+			entity.consumeContent();
+		}
+	}
+
+	/**
+	 * @param request
+	 * @return true if the request body, if any, can be sent again
+	 */
+	static boolean isRepeatable(HttpUriRequest request) {
+		if (request instanceof HttpEntityEnclosingRequest) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			return entity == null || entity.isRepeatable();
+		}
+		return true;
+	}
+
+	/**
+	 * @param uri
+	 * @return host of the URI, including the port if specified
+	 */
+	static String hostOf(URI uri) {
+		return uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+	}
+
+	/**
+	 * @param request
+	 * @return the key identifying the request: its URL and the SHA-256 hash of the token it is authorized with,
+	 * so that the token is not kept in the caches nor written to a {@link DiskCacheStore}
+	 */
+	static String requestKey(HttpUriRequest request) {
+		Header auth = request.getFirstHeader(RH_AUTH_TOKEN);
+		String url = request.getURI().toString();
+		return auth == null ? url : url + '\n' + credentialsHash(auth.getValue());
+	}
 
+	private static String credentialsHash(String credentials) {
+		String[] last = lastCredentials;
+		if (last != null && last[0].equals(credentials)) {
+			return last[1];
+		}
 		try {
-			String queryString = generateQueryString(parameters);
-			final HttpGet get = new HttpGet(normalizeURL(host + service) + queryString);
-			get.setHeader(RH_ACCEPT, "application/json");
-			get.setHeader(RH_AUTH_TOKEN, bearer(token));
-
-			resp = getHttpClient().execute(get);
-			String response = EntityUtils.toString(resp.getEntity(),DEFAULT_CHARSET);
-			if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-				return response;
-			}
-			if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_FORBIDDEN
-					|| resp.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
-				throw new SecurityException();
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(credentials.getBytes("UTF-8"));
+			StringBuilder hash = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hash.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
 			}
-			throw new RemoteException("Error validating "
-					+ resp.getStatusLine());
-		} catch (ClientProtocolException e) {
-			throw new RemoteException(e.getMessage(), e);
-		} catch (ParseException e) {
-			throw new RemoteException(e.getMessage(), e);
-		} catch (IOException e) {
-			throw new RemoteException(e.getMessage(), e);
+			lastCredentials = new String[] {credentials, hash.toString()};
+			return hash.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
 		}
-
 	}
 
 	/**
@@ -169,250 +533,486 @@ public class RemoteConnector {
 
 	public static String postJSON(String host, String service, String body,
 			String token) throws SecurityException, RemoteException {
-		return postJSON(host, service, body, token, null);
+		return getDefaultClient().postJSON(host, service, body, token);
 	}
 
 	public static String postJSON(String host, String service, String body,
 			String token, Map<String, Object> parameters)
 			throws SecurityException, RemoteException {
+		return getDefaultClient().postJSON(host, service, body, token, parameters);
+	}
 
-		String queryString = generateQueryString(parameters);
-		final HttpResponse resp;
-		final HttpPost post = new HttpPost(normalizeURL(host + service) + queryString);
-
-		post.setHeader(RH_ACCEPT, "application/json");
-		post.setHeader(RH_AUTH_TOKEN, bearer(token));
+	static String postJSON(HttpPost post) throws SecurityException, RemoteException {
+		return getDefaultClient().postJSON(post);
+	}
 
-		try {
-			StringEntity input = new StringEntity(body, DEFAULT_CHARSET);
-			input.setContentType("application/json");
-			post.setEntity(input);
-
-			resp = getHttpClient().execute(post);
-			String response = EntityUtils.toString(resp.getEntity(),DEFAULT_CHARSET);
-			if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-				return response;
-			}
-			if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_FORBIDDEN
-					|| resp.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
-				throw new SecurityException();
-			}
+	/**
+	 * Perform POST and read the JSON response directly into an object of the specified class
+	 * @param host
+	 * @param service
+	 * @param body
+	 * @param token
+	 * @param parameters
+	 * @param cls
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public static <T> T postJSON(String host, String service, String body,
+			String token, Map<String, Object> parameters, Class<T> cls)
+			throws SecurityException, RemoteException {
+		return getDefaultClient().postJSON(host, service, body, token, parameters, cls);
+	}
 
-			String msg = "";
-			try {
-				msg = response.substring(response.indexOf("<h1>") + 4,
-						response.indexOf("</h1>", response.indexOf("<h1>")));
-			} catch (Exception e) {
-				msg = resp.getStatusLine().toString();
-			}
-			throw new RemoteException(msg);
-		} catch (ClientProtocolException e) {
-			throw new RemoteException(e.getMessage(), e);
-		} catch (ParseException e) {
-			throw new RemoteException(e.getMessage(), e);
-		} catch (IOException e) {
-			throw new RemoteException(e.getMessage(), e);
-		}
+	static HttpPost createPost(String host, String service, String body,
+			String token, Map<String, Object> parameters) throws RemoteException {
+		return getDefaultClient().createPost(host, service, body, token, parameters);
 	}
 
 	public static String putJSON(String host, String service, String token)
 			throws SecurityException, RemoteException {
-		return putJSON(host, service, null, token, null);
+		return getDefaultClient().putJSON(host, service, token);
 	}
 
 	public static String putJSON(String host, String service, String body,
 			String token) throws SecurityException, RemoteException {
-		return putJSON(host, service, body, token, null);
+		return getDefaultClient().putJSON(host, service, body, token);
 	}
 
 	public static String putJSON(String host, String service, String body,
 			String token, Map<String, Object> parameters)
 			throws SecurityException, RemoteException {
-		final HttpResponse resp;
+		return getDefaultClient().putJSON(host, service, body, token, parameters);
+	}
 
-		String queryString = generateQueryString(parameters);
-		String uriString = normalizeURL(host + service) + queryString;
+	static String putJSON(HttpPut put) throws SecurityException, RemoteException {
+		return getDefaultClient().putJSON(put);
+	}
 
-		final HttpPut put = new HttpPut(uriString);
+	/**
+	 * Perform PUT and read the JSON response directly into an object of the specified class
+	 * @param host
+	 * @param service
+	 * @param body
+	 * @param token
+	 * @param parameters
+	 * @param cls
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public static <T> T putJSON(String host, String service, String body,
+			String token, Map<String, Object> parameters, Class<T> cls)
+			throws SecurityException, RemoteException {
+		return getDefaultClient().putJSON(host, service, body, token, parameters, cls);
+	}
 
-		put.setHeader(RH_ACCEPT, "application/json");
-		put.setHeader(RH_AUTH_TOKEN, bearer(token));
+	static HttpPut createPut(String host, String service, String body,
+			String token, Map<String, Object> parameters) throws RemoteException {
+		return getDefaultClient().createPut(host, service, body, token, parameters);
+	}
 
-		try {
-			if (body != null) {
-				StringEntity input = new StringEntity(body, DEFAULT_CHARSET);
-				input.setContentType("application/json");
-				put.setEntity(input);
-			}
+	/**
+	 * Perform POST sending the object serialized to JSON. The object is written
+	 * directly to the connection, without building the JSON String.
+	 * @param host
+	 * @param service
+	 * @param body object to serialize
+	 * @param token
+	 * @param parameters
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public static String postObject(String host, String service, Object body,
+			String token, Map<String, Object> parameters) throws SecurityException, RemoteException {
+		return getDefaultClient().postObject(host, service, body, token, parameters);
+	}
 
-			resp = getHttpClient().execute(put);
-			String response = EntityUtils.toString(resp.getEntity(),DEFAULT_CHARSET);
-			if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-				return response;
-			}
-			if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_FORBIDDEN
-					|| resp.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
-				throw new SecurityException();
-			}
-			throw new RemoteException("Error validating "
-					+ resp.getStatusLine());
-		} catch (final Exception e) {
-			throw new RemoteException(e.getMessage(), e);
-		}
+	/**
+	 * Perform POST sending the object serialized to JSON and read the JSON response 
+	 * directly into an object of the specified class
+	 * @param host
+	 * @param service
+	 * @param body object to serialize
+	 * @param token
+	 * @param parameters
+	 * @param cls
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public static <T> T postObject(String host, String service, Object body,
+			String token, Map<String, Object> parameters, Class<T> cls) throws SecurityException, RemoteException {
+		return getDefaultClient().postObject(host, service, body, token, parameters, cls);
 	}
 
-	private static String normalizeURL(String uriString) throws RemoteException {
-		try {
-			URL url = new URL(uriString);
-			URI uri = new URI(url.getProtocol(), url.getUserInfo(), url.getHost(), url.getPort(), url.getPath(), url.getQuery(), url.getRef());
-			uriString = uri.toURL().toString();
-		} catch (Exception e) {
-			throw new RemoteException(e.getMessage());
-		}
-		return uriString;
+	/**
+	 * Perform POST sending the JSON read from the stream. The stream is sent as it is read
+	 * and closed at the end.
+	 * @param host
+	 * @param service
+	 * @param body JSON stream
+	 * @param token
+	 * @param parameters
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public static String postStream(String host, String service, InputStream body,
+			String token, Map<String, Object> parameters) throws SecurityException, RemoteException {
+		return getDefaultClient().postStream(host, service, body, token, parameters);
+	}
+
+	/**
+	 * Perform PUT sending the object serialized to JSON. The object is written
+	 * directly to the connection, without building the JSON String.
+	 * @param host
+	 * @param service
+	 * @param body object to serialize
+	 * @param token
+	 * @param parameters
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public static String putObject(String host, String service, Object body,
+			String token, Map<String, Object> parameters) throws SecurityException, RemoteException {
+		return getDefaultClient().putObject(host, service, body, token, parameters);
+	}
+
+	/**
+	 * Perform PUT sending the object serialized to JSON and read the JSON response 
+	 * directly into an object of the specified class
+	 * @param host
+	 * @param service
+	 * @param body object to serialize
+	 * @param token
+	 * @param parameters
+	 * @param cls
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public static <T> T putObject(String host, String service, Object body,
+			String token, Map<String, Object> parameters, Class<T> cls) throws SecurityException, RemoteException {
+		return getDefaultClient().putObject(host, service, body, token, parameters, cls);
+	}
+
+	/**
+	 * Perform PUT sending the JSON read from the stream. The stream is sent as it is read
+	 * and closed at the end.
+	 * @param host
+	 * @param service
+	 * @param body JSON stream
+	 * @param token
+	 * @param parameters
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public static String putStream(String host, String service, InputStream body,
+			String token, Map<String, Object> parameters) throws SecurityException, RemoteException {
+		return getDefaultClient().putStream(host, service, body, token, parameters);
 	}
 
 	public static String deleteJSON(String host, String service, String token)
 			throws SecurityException, RemoteException {
-		return deleteJSON(host, service, token, null);
+		return getDefaultClient().deleteJSON(host, service, token);
 	}
 
 	public static String deleteJSON(String host, String service, String token,
 			Map<String, Object> parameters) throws SecurityException,
 			RemoteException {
-		final HttpResponse resp;
-		String queryString = generateQueryString(parameters);
+		return getDefaultClient().deleteJSON(host, service, token, parameters);
+	}
 
-		final HttpDelete delete = new HttpDelete(normalizeURL(host + service) + queryString);
+	static String deleteJSON(HttpDelete delete) throws SecurityException, RemoteException {
+		return getDefaultClient().deleteJSON(delete);
+	}
 
-		delete.setHeader(RH_ACCEPT, "application/json");
-		delete.setHeader(RH_AUTH_TOKEN, bearer(token));
+	static HttpDelete createDelete(String host, String service, String token,
+			Map<String, Object> parameters) throws RemoteException {
+		return getDefaultClient().createDelete(host, service, token, parameters);
+	}
+	protected static String generateQueryString(Map<String, Object> parameters) {
+		return URLBuilder.queryString(parameters);
+	}
 
-		try {
-			resp = getHttpClient().execute(delete);
-			String response = EntityUtils.toString(resp.getEntity(),DEFAULT_CHARSET);
-			if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-				return response;
+	protected static String encodeValue(String value) {
+		return URLBuilder.encode(value);
+	}
+	
+	private static SchemeRegistry getDefaultSchemeRegistry() {
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		SSLSocketFactory sslSocketFactory = sslSocketFactories.get(CLIENT_TYPE.CLIENT_NORMAL);
+		if (sslSocketFactory == null) {
+			try {
+				sslSocketFactory = new CustomSSLSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+			} catch (Exception e) {
+				sslSocketFactory = SSLSocketFactory.getSocketFactory();
 			}
-			if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_FORBIDDEN
-					|| resp.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
-				throw new SecurityException();
+			sslSocketFactories.put(CLIENT_TYPE.CLIENT_NORMAL, sslSocketFactory);
+		}
+		registry.register(new Scheme("https", sslSocketFactory, 443));
+		return registry;
+	}
+
+	private static SchemeRegistry getAcceptAllSchemeRegistry() {
+		try {
+			SchemeRegistry registry = new SchemeRegistry();
+			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+
+			SSLSocketFactory sslSocketFactory = sslSocketFactories.get(CLIENT_TYPE.CLIENT_ACCEPTALL);
+			if (sslSocketFactory == null) {
+				// IMPORTANT: use CustolSSLSocketFactory for 2.2
+				sslSocketFactory = new CustomSSLSocketFactory(getAcceptAllContext().getSocketFactory());
+				sslSocketFactory.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+				sslSocketFactories.put(CLIENT_TYPE.CLIENT_ACCEPTALL, sslSocketFactory);
 			}
-			throw new RemoteException("Error validating "
-					+ resp.getStatusLine());
-		} catch (ClientProtocolException e) {
-			throw new RemoteException(e.getMessage(), e);
-		} catch (ParseException e) {
-			throw new RemoteException(e.getMessage(), e);
-		} catch (IOException e) {
-			throw new RemoteException(e.getMessage(), e);
+			configureSessions(acceptAllContext.getClientSessionContext());
+			registry.register(new Scheme("https", sslSocketFactory, 443));
+			return registry;
+		} catch (Exception e) {
+			return getDefaultSchemeRegistry();
 		}
 	}
 
-	protected static String generateQueryString(Map<String, Object> parameters) {
-		String queryString = "?";
-		if (parameters != null) {
-			for (String param : parameters.keySet()) {
-				Object value = parameters.get(param);
-				if (value == null) {
-					if (queryString.length() > 1) {
-						queryString += "&";
-					}
-					queryString += param + "=";
-				} else if (value instanceof List) {
-					for (Object v : ((List<?>) value)) {
-						if (queryString.length() > 1) {
-							queryString += "&";
-						}
-						queryString += param + "=" + encodeValue(v.toString());
-					}
-				} else {
-					if (queryString.length() > 1) {
-						queryString += "&";
-					}
-					queryString += param + "=" + encodeValue(value.toString());
+	private static SchemeRegistry getWildcartSchemeRegistry() {
+		try {
+			SchemeRegistry registry = new SchemeRegistry();
+			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+
+			SSLSocketFactory sslSocketFactory = sslSocketFactories.get(CLIENT_TYPE.CLIENT_WILDCARD);
+			if (sslSocketFactory == null) {
+				sslSocketFactory = new CustomSSLSocketFactory(getAcceptAllContext().getSocketFactory());
+				final X509HostnameVerifier delegate = sslSocketFactory.getHostnameVerifier();
+				if (!(delegate instanceof WildcardVerifier)) {
+					sslSocketFactory.setHostnameVerifier(new WildcardVerifier(delegate));
 				}
+				sslSocketFactories.put(CLIENT_TYPE.CLIENT_WILDCARD, sslSocketFactory);
+			}
+			configureSessions(acceptAllContext.getClientSessionContext());
+			registry.register(new Scheme("https", sslSocketFactory, 443));
+			return registry;
+		} catch (Exception e) {
+			return getDefaultSchemeRegistry();
+		}
+	}
 
+	/**
+	 * @param type
+	 * @return the schemes of the client type, with the shared SSL socket factory
+	 */
+	static synchronized SchemeRegistry getSchemeRegistry(CLIENT_TYPE type) {
+		switch (type) {
+		case CLIENT_WILDCARD:
+			return getWildcartSchemeRegistry();
+		case CLIENT_ACCEPTALL:
+			return getAcceptAllSchemeRegistry();
+		default:
+			return getDefaultSchemeRegistry();
+		}
+	}
+
+	/**
+	 * @param type
+	 * @return the SSL socket factory of the client type, shared by all the clients
+	 */
+	static synchronized SSLSocketFactory getSSLSocketFactory(CLIENT_TYPE type) {
+		SSLSocketFactory sslSocketFactory = sslSocketFactories.get(type);
+		if (sslSocketFactory == null) {
+			switch (type) {
+			case CLIENT_WILDCARD:
+				getWildcartSchemeRegistry();
+				break;
+			case CLIENT_ACCEPTALL:
+				getAcceptAllSchemeRegistry();
+				break;
+			default:
+				getDefaultSchemeRegistry();
 			}
+			sslSocketFactory = sslSocketFactories.get(type);
 		}
-		return queryString.length() > 1 ? queryString : "";
+		return sslSocketFactory != null ? sslSocketFactory : sslSocketFactories.get(CLIENT_TYPE.CLIENT_NORMAL);
 	}
 
-	protected static String encodeValue(String value) {
+	/**
+	 * @param type
+	 * @return the JSSE socket factory of the client type, for the engines not based on {@link HttpClient}
+	 */
+	static javax.net.ssl.SSLSocketFactory getJsseSocketFactory(CLIENT_TYPE type) {
+		SSLSocketFactory sslSocketFactory = getSSLSocketFactory(type);
+		if (sslSocketFactory instanceof CustomSSLSocketFactory) {
+			return ((CustomSSLSocketFactory) sslSocketFactory).socketFactory;
+		}
+		return HttpsURLConnection.getDefaultSSLSocketFactory();
+	}
+
+	/**
+	 * @param type
+	 * @return the SSL context of the client type, for the engines configured with a context 
+	 * rather than a socket factory. The host names are not verified by the context.
+	 */
+	static synchronized SSLContext getSSLContext(CLIENT_TYPE type) {
+		getSSLSocketFactory(type);
+		if (type != CLIENT_TYPE.CLIENT_NORMAL && acceptAllContext != null) {
+			return acceptAllContext;
+		}
 		try {
-			return URLEncoder.encode(value, "utf8");
-		} catch (UnsupportedEncodingException e) {
-			return value;
+			return SSLContext.getDefault();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
 		}
 	}
-	
-	private static HttpClient getDefaultHttpClient(HttpParams inParams) {
-		if (inParams != null) {
-			return new DefaultHttpClient(inParams);
-		} else {
-			return new DefaultHttpClient();
+
+	/**
+	 * @return the SSL context trusting all the certificates, created once
+	 * @throws NoSuchAlgorithmException
+	 * @throws KeyManagementException
+	 */
+	private static SSLContext getAcceptAllContext() throws NoSuchAlgorithmException, KeyManagementException {
+		if (acceptAllContext == null) {
+			TrustManager tm = new X509TrustManager() {
+				public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+				}
+
+				public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+				}
+
+				public X509Certificate[] getAcceptedIssuers() {
+					return null;
+				}
+			};
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(null, new TrustManager[] { tm }, null);
+			acceptAllContext = context;
 		}
+		return acceptAllContext;
 	}
 
-	private static HttpClient getAcceptAllHttpClient(HttpParams inParams) {
-		HttpClient client = null;
+	/**
+	 * Apply the session cache settings, if changed
+	 * @param sessions client session context, may be null
+	 */
+	private static void configureSessions(SSLSessionContext sessions) {
+		if (sessions != null) {
+			int size = HTTPS_SESSION_CACHE_SIZE;
+			int timeout = HTTPS_SESSION_TIMEOUT_S;
+			if (sessions.getSessionCacheSize() != size) {
+				sessions.setSessionCacheSize(size);
+			}
+			if (sessions.getSessionTimeout() != timeout) {
+				sessions.setSessionTimeout(timeout);
+			}
+		}
+	}
 
-		HttpParams params = inParams != null ? inParams : new BasicHttpParams();
+	/*
+	 * Custom classes
+	 */
+	/**
+	 * Client reading its configuration from the static fields and setters, 
+	 * as they are when each call is performed
+	 */
+	private static class StaticClient extends RemoteClient {
 
-		try {
-			KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-			trustStore.load(null, null);
+		public StaticClient() {
+			super(new RemoteClient.Builder());
+		}
 
-			SchemeRegistry registry = new SchemeRegistry();
-			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		@Override
+		public CLIENT_TYPE getClientType() {
+			return clientType;
+		}
 
-			// IMPORTANT: use CustolSSLSocketFactory for 2.2
-			SSLSocketFactory sslSocketFactory = new CustomSSLSocketFactory(trustStore);
-			sslSocketFactory.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-			registry.register(new Scheme("https", sslSocketFactory, 443));
+		@Override
+		public int getConnectTimeout() {
+			return HTTP_REQUEST_TIMEOUT_MS;
+		}
 
-			ClientConnectionManager ccm = new ThreadSafeClientConnManager(params, registry);
+		@Override
+		public int getReadTimeout() {
+			return HTTP_REQUEST_TIMEOUT_MS;
+		}
 
-			client = new DefaultHttpClient(ccm, params);
-		} catch (Exception e) {
-			client = new DefaultHttpClient(params);
+		@Override
+		public int getPoolTimeout() {
+			return HTTP_REQUEST_TIMEOUT_MS;
 		}
 
-		return client;
-	}
+		@Override
+		public int getCallTimeout() {
+			return HTTP_CALL_TIMEOUT_MS;
+		}
 
-	private static HttpClient getWildcartHttpClient(HttpParams inParams) {
-		HttpClient client = null;
+		@Override
+		public int getMaxTotalConnections() {
+			return HTTP_MAX_TOTAL_CONNECTIONS;
+		}
 
-		HttpParams params = inParams != null ? inParams : new BasicHttpParams();
+		@Override
+		public int getMaxConnectionsPerRoute() {
+			return HTTP_MAX_CONNECTIONS_PER_ROUTE;
+		}
 
-		try {
-			KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-			trustStore.load(null, null);
+		@Override
+		public int getIdleConnectionTimeout() {
+			return HTTP_IDLE_CONNECTION_TIMEOUT_MS;
+		}
 
-			SchemeRegistry registry = new SchemeRegistry();
-			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		@Override
+		public boolean isCompressionEnabled() {
+			return HTTP_COMPRESSION_ENABLED;
+		}
 
-			SSLSocketFactory sslSocketFactory = new CustomSSLSocketFactory(trustStore);
-			final X509HostnameVerifier delegate = sslSocketFactory.getHostnameVerifier();
-			if (!(delegate instanceof WildcardVerifier)) {
-				sslSocketFactory.setHostnameVerifier(new WildcardVerifier(delegate));
-			}
-			registry.register(new Scheme("https", sslSocketFactory, 443));
+		@Override
+		public int getGzipRequestThreshold() {
+			return HTTP_GZIP_REQUEST_THRESHOLD;
+		}
 
-			ClientConnectionManager ccm = new ThreadSafeClientConnManager(params, registry);
+		@Override
+		public ResponseCache getResponseCache() {
+			return responseCache;
+		}
 
-			client = new DefaultHttpClient(ccm, params);
-		} catch (Exception e) {
-			client = new DefaultHttpClient(params);
+		@Override
+		public RequestCoalescer getRequestCoalescer() {
+			return requestCoalescer;
+		}
+
+		@Override
+		public RemoteCallListener getCallListener() {
+			return callListener;
+		}
+
+		@Override
+		public RetryPolicy getRetryPolicy() {
+			return retryPolicy;
+		}
+
+		@Override
+		public HedgePolicy getHedgePolicy() {
+			return hedgePolicy;
 		}
 
-		return client;
+		@Override
+		public Bulkhead getBulkhead() {
+			return bulkhead;
+		}
+
+		@Override
+		public TokenManager getTokenManager() {
+			return tokenManager;
+		}
+
+		@Override
+		public Transport getTransport() {
+			return transport;
+		}
 	}
 
-	/*
-	 * Custom classes
-	 */
 	private static class WildcardVerifier extends AbstractVerifier {
 		private final X509HostnameVerifier delegate;
 
@@ -443,37 +1043,81 @@ public class RemoteConnector {
 		}
 	}
 
+	/**
+	 * Creates the sockets with the given factory, counting full and abbreviated 
+	 * (resumed session) TLS handshakes, and applies the session cache settings to 
+	 * the context of the sessions it creates.
+	 */
 	private static class CustomSSLSocketFactory extends SSLSocketFactory {
-		SSLContext sslContext = SSLContext.getInstance("TLS");
-
-		public CustomSSLSocketFactory(KeyStore truststore) throws NoSuchAlgorithmException, KeyManagementException,
-				KeyStoreException, UnrecoverableKeyException {
-			super(truststore);
-
-			TrustManager tm = new X509TrustManager() {
-				public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-				}
-
-				public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-				}
+		private final javax.net.ssl.SSLSocketFactory socketFactory;
+		/** ids of the sessions established, in access order: a resumed session reuses its id */
+		private final Map<ByteBuffer, Boolean> sessionIds = new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+				return size() > (HTTPS_SESSION_CACHE_SIZE > 0 ? HTTPS_SESSION_CACHE_SIZE : 10000);
+			}
+		};
 
-				public X509Certificate[] getAcceptedIssuers() {
-					return null;
-				}
-			};
+		public CustomSSLSocketFactory(javax.net.ssl.SSLSocketFactory socketFactory) throws NoSuchAlgorithmException, 
+				KeyManagementException, KeyStoreException, UnrecoverableKeyException, CertificateException, IOException {
+			super(emptyTrustStore());
+			this.socketFactory = socketFactory;
+		}
 
-			sslContext.init(null, new TrustManager[] { tm }, null);
+		private static KeyStore emptyTrustStore() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException {
+			KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+			trustStore.load(null, null);
+			return trustStore;
 		}
 
 		@Override
 		public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException,
 				UnknownHostException {
-			return sslContext.getSocketFactory().createSocket(socket, host, port, autoClose);
+			SSLSocket sslSocket = (SSLSocket) socketFactory.createSocket(socket, host, port, autoClose);
+			// layered over a proxy tunnel: verified here, as connectSocket does for direct connections
+			getHostnameVerifier().verify(host, sslSocket);
+			handshakeCompleted(sslSocket);
+			return sslSocket;
 		}
 
 		@Override
 		public Socket createSocket() throws IOException {
-			return sslContext.getSocketFactory().createSocket();
+			return socketFactory.createSocket();
+		}
+
+		@Override
+		public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort,
+				HttpParams params) throws IOException {
+			Socket sslSocket = super.connectSocket(sock, host, port, localAddress, localPort, params);
+			handshakeCompleted((SSLSocket) sslSocket);
+			return sslSocket;
+		}
+
+		/**
+		 * Count the handshake of the socket, performing it if not done yet. A failed handshake 
+		 * is not counted: its session is invalid and the failure is raised by the first I/O.
+		 * @param socket
+		 */
+		private void handshakeCompleted(SSLSocket socket) {
+			SSLSession session = socket.getSession();
+			if (!session.isValid() || "SSL_NULL_WITH_NULL_NULL".equals(session.getCipherSuite())) {
+				return;
+			}
+			configureSessions(session.getSessionContext());
+			byte[] id = session.getId();
+			boolean resumed = false;
+			if (id != null && id.length > 0) {
+				synchronized (sessionIds) {
+					resumed = sessionIds.put(ByteBuffer.wrap(id.clone()), Boolean.TRUE) != null;
+				}
+			}
+			if (resumed) {
+				tlsResumed.incrementAndGet();
+			} else {
+				tlsHandshakes.incrementAndGet();
+			}
 		}
 	}
 
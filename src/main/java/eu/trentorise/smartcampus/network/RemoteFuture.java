@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Result of an asynchronous {@link RemoteConnector} call. Cancelling the future
+ * aborts the underlying HTTP request, releasing its connection.
+ * 
+ * @param <T> result type
+ */
+public class RemoteFuture<T> extends FutureTask<T> {
+
+	private final RemoteCall<T> call;
+
+	RemoteFuture(RemoteCall<T> call) {
+		super(call);
+		this.call = call;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if (cancelled) {
+			call.abort();
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Wait for the call to complete
+	 * @return call result
+	 * @throws SecurityException if the call is not authorized
+	 * @throws RemoteException if the call failed, was cancelled or the waiting thread was interrupted
+	 */
+	public T getResult() throws SecurityException, RemoteException {
+		try {
+			return get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException(e.getMessage(), e);
+		} catch (CancellationException e) {
+			throw new RemoteException("Call cancelled", e);
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+	}
+
+	/**
+	 * Wait at most the specified time for the call to complete. If the result is not 
+	 * available in time, the call is cancelled and its request aborted.
+	 * @param timeout
+	 * @param unit
+	 * @return call result
+	 * @throws SecurityException if the call is not authorized
+	 * @throws RemoteException if the call failed, timed out, was cancelled or the waiting thread was interrupted
+	 */
+	public T getResult(long timeout, TimeUnit unit) throws SecurityException, RemoteException {
+		try {
+			return get(timeout, unit);
+		} catch (TimeoutException e) {
+			cancel(true);
+			throw new RemoteException("Call timed out", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException(e.getMessage(), e);
+		} catch (CancellationException e) {
+			throw new RemoteException("Call cancelled", e);
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+	}
+
+	static RemoteException unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof RemoteException) {
+			return (RemoteException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new RemoteException(cause);
+	}
+
+	/**
+	 * Call creating and executing a single HTTP request, that can be aborted
+	 * from another thread. The call is bound to the {@link Deadline} of the thread creating it.
+	 * @param <T>
+	 */
+	static abstract class RemoteCall<T> implements Callable<T> {
+		private final Deadline deadline = Deadline.current();
+		private volatile HttpUriRequest request;
+		private volatile boolean aborted = false;
+
+		protected abstract HttpUriRequest createRequest() throws RemoteException;
+
+		protected abstract T execute(HttpUriRequest request) throws RemoteException;
+
+		public T call() throws Exception {
+			Deadline previous = Deadline.attach(Deadline.earliest(deadline, Deadline.current()));
+			try {
+				HttpUriRequest r = createRequest();
+				request = r;
+				if (aborted) {
+					r.abort();
+				}
+				return execute(r);
+			} finally {
+				Deadline.restore(previous);
+			}
+		}
+
+		void abort() {
+			aborted = true;
+			HttpUriRequest r = request;
+			if (r != null) {
+				r.abort();
+			}
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+/**
+ * Unchecked wrapper of the {@link RemoteException} raised while iterating 
+ * over remote data, e.g. with a {@link PageIterator}.
+ */
+public class RemoteIterationException extends RuntimeException {
+
+	private static final long serialVersionUID = -1786236394519532781L;
+
+	public RemoteIterationException(RemoteException cause) {
+		super(cause.getMessage(), cause);
+	}
+
+	@Override
+	public RemoteException getCause() {
+		return (RemoteException) super.getCause();
+	}
+}
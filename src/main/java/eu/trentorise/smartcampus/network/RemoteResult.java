@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+/**
+ * Outcome of a single call executed in a group, holding either 
+ * the call result or the exception the call failed with.
+ * 
+ * @param <T> result type
+ */
+public class RemoteResult<T> {
+
+	private final T value;
+	private final Exception exception;
+
+	private RemoteResult(T value, Exception exception) {
+		this.value = value;
+		this.exception = exception;
+	}
+
+	static <T> RemoteResult<T> success(T value) {
+		return new RemoteResult<T>(value, null);
+	}
+
+	static <T> RemoteResult<T> failure(Exception exception) {
+		return new RemoteResult<T>(null, exception);
+	}
+
+	/**
+	 * @return true if the call completed without exceptions
+	 */
+	public boolean isSuccess() {
+		return exception == null;
+	}
+
+	/**
+	 * @return the call result
+	 * @throws SecurityException if the call was not authorized
+	 * @throws RemoteException if the call failed
+	 */
+	public T getResult() throws SecurityException, RemoteException {
+		if (exception instanceof SecurityException) {
+			throw (SecurityException) exception;
+		}
+		if (exception != null) {
+			throw (RemoteException) exception;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the {@link RemoteException} or {@link SecurityException} the call failed with, null if succeeded
+	 */
+	public Exception getException() {
+		return exception;
+	}
+
+	@Override
+	public String toString() {
+		return exception == null ? String.valueOf(value) : exception.toString();
+	}
+}
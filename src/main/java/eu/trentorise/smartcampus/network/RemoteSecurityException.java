@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import org.apache.http.Header;
+
+/**
+ * Thrown when the remote host answers 401 Unauthorized or 403 Forbidden. 
+ * If {@link RemoteConnector#HTTP_ERROR_STACK_TRACES} is false the stack trace is not filled.
+ */
+public class RemoteSecurityException extends SecurityException {
+
+	private static final long serialVersionUID = 1907365043316744585L;
+
+	private final transient ErrorResponse response;
+
+	RemoteSecurityException(ErrorResponse response) {
+		super(response.statusLine);
+		this.response = response;
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return RemoteConnector.HTTP_ERROR_STACK_TRACES ? super.fillInStackTrace() : this;
+	}
+
+	public int getStatus() {
+		return response.status;
+	}
+
+	/**
+	 * @return host of the call, including the port if specified
+	 */
+	public String getHost() {
+		return response.host;
+	}
+
+	public Header[] getHeaders() {
+		return response.headers.clone();
+	}
+
+	/**
+	 * @param name
+	 * @return the value of the first response header with the name, null if missing
+	 */
+	public String getHeader(String name) {
+		return response.getHeader(name);
+	}
+
+	/**
+	 * @return the response body, truncated to {@link RemoteConnector#HTTP_ERROR_BODY_MAX} bytes
+	 */
+	public String getErrorBody() {
+		return response.getBody();
+	}
+}
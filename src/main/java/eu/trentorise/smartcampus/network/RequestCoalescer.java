@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Coalesces identical concurrent GET calls: while a call for a given URL and token is in 
+ * progress, the other threads performing the same call wait for it and share its result
+ * or exception instead of sending their own request. A waiting thread waits at most until 
+ * its own {@link Deadline}, and performs the call itself if the call in progress failed only 
+ * because its deadline expired.
+ * <p>
+ * Enable it with {@link RemoteConnector#setRequestCoalescer(RequestCoalescer)}.
+ */
+public class RequestCoalescer {
+
+	private final ConcurrentMap<String, FutureTask<String>> calls = new ConcurrentHashMap<String, FutureTask<String>>();
+
+	private final AtomicLong executed = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * @return number of calls actually sent to the server
+	 */
+	public long getExecutedCount() {
+		return executed.get();
+	}
+
+	/**
+	 * @return number of calls that shared the result of an identical call in progress
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return number of distinct calls currently in progress
+	 */
+	public int getInFlightCount() {
+		return calls.size();
+	}
+
+	/**
+	 * Execute the call, unless an identical call is already in progress:
+	 * in that case wait for its outcome.
+	 * @param request the request sent by the call
+	 * @param deadline deadline of the call, null if none
+	 * @param call
+	 * @return
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	String execute(HttpUriRequest request, Deadline deadline, Callable<String> call) throws SecurityException, RemoteException {
+		String key = RemoteConnector.requestKey(request);
+		for (;;) {
+			FutureTask<String> task = new FutureTask<String>(call);
+			FutureTask<String> current = calls.putIfAbsent(key, task);
+			if (current == null) {
+				executed.incrementAndGet();
+				try {
+					task.run();
+				} finally {
+					calls.remove(key, task);
+				}
+				current = task;
+			} else {
+				coalesced.incrementAndGet();
+			}
+			try {
+				return deadline == null ? current.get() : current.get(deadline.getRemaining(), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RemoteException(e.getMessage(), e);
+			} catch (TimeoutException e) {
+				throw new DeadlineExceededException(RemoteConnector.hostOf(request.getURI()), null);
+			} catch (ExecutionException e) {
+				RemoteException failure = RemoteFuture.unwrap(e);
+				if (current == task || !(failure instanceof DeadlineExceededException) 
+						|| (deadline != null && deadline.isExpired())) {
+					throw failure;
+				}
+				// the deadline of the call in progress expired, not the one of this call
+				calls.remove(key, current);
+			}
+		}
+	}
+}
@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+/**
+ * Bounded in-memory cache of GET responses. Responses are stored according to their
+ * <code>Cache-Control</code> and <code>Expires</code> headers; stale responses having an 
+ * <code>ETag</code> or <code>Last-Modified</code> validator are revalidated with a 
+ * conditional request and served from the cache if the server answers 304 (Not Modified).
+ * The least recently used responses are evicted when the entry or size limit is exceeded.
+ * <p>
+ * Optionally, the responses are also persisted in a {@link DiskCacheStore}, so that they survive 
+ * restarts, and stale responses are served while revalidated in background 
+ * (see {@link #setStaleWhileRevalidate(long)}).
+ * <p>
+ * Enable it with {@link RemoteConnector#setResponseCache(ResponseCache)}.
+ */
+public class ResponseCache {
+
+	private static final String H_CACHE_CONTROL = "Cache-Control";
+	private static final String H_EXPIRES = "Expires";
+	private static final String H_ETAG = "ETag";
+	private static final String H_LAST_MODIFIED = "Last-Modified";
+	private static final String H_IF_NONE_MATCH = "If-None-Match";
+	private static final String H_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+	private final int maxEntries;
+	private final long maxSize;
+	private long size = 0;
+
+	private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+
+	private volatile DiskCacheStore diskStore = null;
+	private volatile long maxStale = 0;
+	/** keys being revalidated in background */
+	private final Set<String> refreshing = Collections.synchronizedSet(new HashSet<String>());
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong staleHits = new AtomicLong();
+
+	/**
+	 * @param maxEntries max number of cached responses
+	 * @param maxSize max total length (in chars) of the cached response bodies
+	 */
+	public ResponseCache(int maxEntries, long maxSize) {
+		this.maxEntries = maxEntries;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Persist the cached responses in the store, and look up there the responses missing in memory.
+	 * @param store the store, null to keep the responses in memory only
+	 */
+	public void setDiskStore(DiskCacheStore store) {
+		this.diskStore = store;
+	}
+
+	/**
+	 * Serve the stale responses, while revalidating them in background, for the specified time
+	 * after their expiration. Useful together with a {@link DiskCacheStore}, to avoid hitting 
+	 * the servers with all the cached calls at startup.
+	 * @param maxStale time (in ms) after the expiration a response can be served, 0 to always wait for the revalidation
+	 */
+	public void setStaleWhileRevalidate(long maxStale) {
+		this.maxStale = maxStale;
+	}
+
+	/**
+	 * @return number of calls served from the cache without contacting the server
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of calls that had to contact the server
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of calls, among the misses, served from the cache after the server answered 304 (Not Modified)
+	 */
+	public long getRevalidationCount() {
+		return revalidations.get();
+	}
+
+	/**
+	 * @return number of calls, among the misses, served with a stale response being revalidated in background
+	 */
+	public long getStaleHitCount() {
+		return staleHits.get();
+	}
+
+	/**
+	 * @return number of responses removed to keep the cache within its limits
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return number of cached responses
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Remove all the cached responses
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Find the cached response for the request. If the response is stale, the validators
+	 * are added to the request.
+	 * @param key request key, see {@link RemoteConnector#requestKey(HttpUriRequest)}
+	 * @param request
+	 * @return the cached response or null if none
+	 */
+	CachedResponse lookup(String key, HttpUriRequest request) {
+		CachedResponse cached;
+		synchronized (this) {
+			cached = entries.get(key);
+		}
+		final DiskCacheStore store = diskStore;
+		if (cached == null && store != null) {
+			cached = store.get(key);
+			if (cached != null) {
+				synchronized (this) {
+					if (!entries.containsKey(key)) {
+						entries.put(key, cached);
+						size += cached.body.length();
+						evict();
+					}
+				}
+			}
+		}
+		if (cached != null && cached.isFresh()) {
+			hits.incrementAndGet();
+			return cached;
+		}
+		misses.incrementAndGet();
+		if (cached == null) {
+			return null;
+		}
+		if (cached.etag != null) {
+			request.setHeader(H_IF_NONE_MATCH, cached.etag);
+		}
+		if (cached.lastModified != null) {
+			request.setHeader(H_IF_MODIFIED_SINCE, cached.lastModified);
+		}
+		return cached;
+	}
+
+	/**
+	 * Check whether the stale response can be served while revalidated in background.
+	 * @param key
+	 * @param cached
+	 * @return 0 if the response cannot be served, 1 if it can, 2 if it can and the caller 
+	 * has to revalidate it, calling {@link #refreshed(String)} once done
+	 */
+	int serveStale(String key, CachedResponse cached) {
+		if (System.currentTimeMillis() >= cached.expires + maxStale) {
+			return 0;
+		}
+		staleHits.incrementAndGet();
+		return refreshing.add(key) ? 2 : 1;
+	}
+
+	void refreshed(String key) {
+		refreshing.remove(key);
+	}
+
+	/**
+	 * Store the 200 (OK) response, if cacheable.
+	 * @param key
+	 * @param resp
+	 * @param body
+	 */
+	void store(String key, HttpResponse resp, String body) {
+		CachedResponse cached = create(resp, body);
+		synchronized (this) {
+			CachedResponse old = cached == null ? entries.remove(key) : entries.put(key, cached);
+			if (old != null) {
+				size -= old.body.length();
+			}
+			if (cached != null) {
+				size += cached.body.length();
+				evict();
+			}
+		}
+		final DiskCacheStore store = diskStore;
+		if (store != null) {
+			if (cached == null) {
+				store.remove(key);
+			} else {
+				store.put(key, cached);
+			}
+		}
+	}
+
+	/**
+	 * Refresh the stale response after the server answered 304 (Not Modified).
+	 * @param key
+	 * @param cached
+	 * @param resp
+	 * @return the body of the cached response
+	 */
+	String revalidated(String key, CachedResponse cached, HttpResponse resp) {
+		revalidations.incrementAndGet();
+		CachedResponse refreshed = create(resp, cached.body);
+		if (refreshed != null) {
+			if (refreshed.etag == null) {
+				refreshed.etag = cached.etag;
+			}
+			if (refreshed.lastModified == null) {
+				refreshed.lastModified = cached.lastModified;
+			}
+			boolean replaced = false;
+			synchronized (this) {
+				if (entries.get(key) == cached) {
+					entries.put(key, refreshed);
+					replaced = true;
+				}
+			}
+			final DiskCacheStore store = diskStore;
+			if (replaced && store != null) {
+				store.put(key, refreshed);
+			}
+		}
+		return cached.body;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, CachedResponse>> iterator = entries.entrySet().iterator();
+		while ((entries.size() > maxEntries || size > maxSize) && iterator.hasNext()) {
+			CachedResponse evicted = iterator.next().getValue();
+			iterator.remove();
+			size -= evicted.body.length();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @param resp
+	 * @param body
+	 * @return the cache entry for the response or null if the response cannot be cached
+	 */
+	private static CachedResponse create(HttpResponse resp, String body) {
+		long now = System.currentTimeMillis();
+		long expires = -1;
+		for (Header header : resp.getHeaders(H_CACHE_CONTROL)) {
+			for (HeaderElement element : header.getElements()) {
+				String name = element.getName().toLowerCase();
+				if ("no-store".equals(name)) {
+					return null;
+				}
+				if ("no-cache".equals(name)) {
+					expires = now;
+				} else if ("max-age".equals(name) && expires < 0) {
+					try {
+						expires = now + Long.parseLong(element.getValue()) * 1000;
+					} catch (NumberFormatException e) {
+						expires = now;
+					}
+				}
+			}
+		}
+		if (expires < 0) {
+			Header header = resp.getFirstHeader(H_EXPIRES);
+			if (header != null) {
+				try {
+					Date date = DateUtils.parseDate(header.getValue());
+					expires = date.getTime();
+				} catch (DateParseException e) {
+					expires = now;
+				}
+			}
+		}
+		Header etag = resp.getFirstHeader(H_ETAG);
+		Header lastModified = resp.getFirstHeader(H_LAST_MODIFIED);
+		if (expires <= now && etag == null && lastModified == null) {
+			return null;
+		}
+		CachedResponse cached = new CachedResponse();
+		cached.body = body;
+		cached.expires = Math.max(expires, now);
+		cached.etag = etag == null ? null : etag.getValue();
+		cached.lastModified = lastModified == null ? null : lastModified.getValue();
+		return cached;
+	}
+
+	static class CachedResponse {
+		String body;
+		long expires;
+		String etag;
+		String lastModified;
+
+		boolean isFresh() {
+			return System.currentTimeMillis() < expires;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Resilience policy of the {@link RemoteConnector} calls:
+ * <ul>
+ * <li>calls failed with an I/O error or a 502, 503 or 504 response are retried, with exponential 
+ * backoff and random jitter. GET, PUT and DELETE are retried, POST only if enabled. Requests 
+ * with a body that cannot be sent twice are never retried.</li>
+ * <li>retries are limited by a budget, refilled by a fraction of the calls performed,
+ * so that a failing service does not receive a storm of retries.</li>
+ * <li>each host has a {@link CircuitBreaker}: while it is open, the calls fail immediately
+ * with {@link CircuitOpenException}.</li>
+ * </ul>
+ * Enable it with {@link RemoteConnector#setRetryPolicy(RetryPolicy)}.
+ */
+public class RetryPolicy {
+
+	private static final long TOKEN = 1000;
+
+	private int maxRetries = 2;
+	private long initialBackoff = 100;
+	private long maxBackoff = 2000;
+	private boolean retryPost = false;
+	private double retryBudgetRatio = 0.2;
+	private int retryBudgetMax = 20;
+	private int circuitFailureThreshold = 5;
+	private long circuitOpenTime = 10 * 1000;
+
+	private final Random random = new Random();
+	/** retry budget, in thousandths of retry */
+	private final AtomicLong budget = new AtomicLong(retryBudgetMax * TOKEN);
+	private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong budgetExhausted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param maxRetries max number of retries of a single call, default 2
+	 */
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * @param initialBackoff delay (in ms) before the first retry, doubled at each further retry. Default 100
+	 * @param maxBackoff max delay (in ms) between retries. Default 2000
+	 */
+	public void setBackoff(long initialBackoff, long maxBackoff) {
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * @param retryPost true to retry also POST calls, that may not be idempotent. Default false
+	 */
+	public void setRetryPost(boolean retryPost) {
+		this.retryPost = retryPost;
+	}
+
+	/**
+	 * @param ratio retries allowed for each call performed, default 0.2
+	 * @param max max retries that can be accumulated in the budget, default 20
+	 */
+	public void setRetryBudget(double ratio, int max) {
+		this.retryBudgetRatio = ratio;
+		this.retryBudgetMax = max;
+		budget.set(max * TOKEN);
+	}
+
+	/**
+	 * Configure the circuit breakers of the hosts contacted from now on
+	 * @param failureThreshold consecutive failures opening the circuit, default 5
+	 * @param openTime time (in ms) the circuit stays open, default 10000
+	 */
+	public void setCircuitBreaker(int failureThreshold, long openTime) {
+		this.circuitFailureThreshold = failureThreshold;
+		this.circuitOpenTime = openTime;
+	}
+
+	/**
+	 * @param host
+	 * @return the circuit breaker of the host, null if the host has not been called yet
+	 */
+	public CircuitBreaker getCircuitBreaker(String host) {
+		return breakers.get(host);
+	}
+
+	/**
+	 * @return number of retries performed
+	 */
+	public long getRetryCount() {
+		return retries.get();
+	}
+
+	/**
+	 * @return number of retries not performed because the budget was exhausted
+	 */
+	public long getBudgetExhaustedCount() {
+		return budgetExhausted.get();
+	}
+
+	/**
+	 * @return number of calls rejected because the circuit of the host was open
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * @param request
+	 * @return the circuit breaker of the request host
+	 * @throws CircuitOpenException if the circuit is open
+	 */
+	CircuitBreaker acquire(HttpUriRequest request) throws CircuitOpenException {
+		String host = RemoteConnector.hostOf(request.getURI());
+		CircuitBreaker breaker = breakers.get(host);
+		if (breaker == null) {
+			breaker = new CircuitBreaker(circuitFailureThreshold, circuitOpenTime);
+			CircuitBreaker existing = breakers.putIfAbsent(host, breaker);
+			if (existing != null) {
+				breaker = existing;
+			}
+		}
+		if (!breaker.allowRequest()) {
+			rejected.incrementAndGet();
+			throw new CircuitOpenException(host);
+		}
+		long current = budget.get();
+		if (current < retryBudgetMax * TOKEN) {
+			budget.addAndGet((long) (retryBudgetRatio * TOKEN));
+		}
+		return breaker;
+	}
+
+	/**
+	 * @param request
+	 * @return true if the request can be safely sent again
+	 */
+	boolean isRetryable(HttpUriRequest request) {
+		if (maxRetries <= 0 || (request instanceof HttpPost && !retryPost)) {
+			return false;
+		}
+		return RemoteConnector.isRepeatable(request);
+	}
+
+	/**
+	 * @param status
+	 * @return true if the response status denotes a temporary server failure
+	 */
+	boolean isFailure(int status) {
+		return status == HttpStatus.SC_BAD_GATEWAY || status == HttpStatus.SC_SERVICE_UNAVAILABLE
+				|| status == HttpStatus.SC_GATEWAY_TIMEOUT;
+	}
+
+	/**
+	 * Take a retry from the budget and wait before performing it.
+	 * @param retry number of the retry, starting from 0
+	 * @param deadline deadline of the call, null if none
+	 * @return false if the retry cannot be performed, also when the deadline would expire while waiting
+	 * @throws RemoteException if interrupted while waiting
+	 */
+	boolean retry(int retry, Deadline deadline) throws RemoteException {
+		if (retry >= maxRetries) {
+			return false;
+		}
+		long delay = Math.min(maxBackoff, initialBackoff << Math.min(retry, 30));
+		delay = delay / 2 + (long) (random.nextDouble() * (delay / 2 + 1));
+		if (deadline != null && delay >= deadline.getRemaining()) {
+			return false;
+		}
+		for (;;) {
+			long current = budget.get();
+			if (current < TOKEN) {
+				budgetExhausted.incrementAndGet();
+				return false;
+			}
+			if (budget.compareAndSet(current, current - TOKEN)) {
+				break;
+			}
+		}
+		retries.incrementAndGet();
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException(e.getMessage(), e);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.message.BasicHeader;
+
+/**
+ * Keeps the current access token of a {@link TokenProvider}, together with its 
+ * <code>Authorization</code> header.
+ * <ul>
+ * <li>the token is refreshed in background when it is about to expire, the calls going on 
+ * with the current one meanwhile;</li>
+ * <li>concurrent refreshes are coalesced into a single {@link TokenProvider#fetchToken()} call;</li>
+ * <li>when a call is rejected with 401, the token is refreshed and the call repeated once.</li>
+ * </ul>
+ * Enable it with {@link RemoteConnector#setTokenManager(TokenManager)}: the calls performed 
+ * with a null token use the managed one.
+ */
+public class TokenManager {
+
+	private final TokenProvider provider;
+	private volatile long refreshMargin = 60 * 1000;
+
+	private volatile TokenHeader current = null;
+	private FutureTask<TokenHeader> pending = null;
+	private final AtomicLong refreshes = new AtomicLong();
+
+	public TokenManager(TokenProvider provider) {
+		this.provider = provider;
+	}
+
+	/**
+	 * @param refreshMargin time (in ms) before the expiration the token is refreshed, default 60000
+	 */
+	public void setRefreshMargin(long refreshMargin) {
+		this.refreshMargin = refreshMargin;
+	}
+
+	/**
+	 * @return number of tokens fetched from the provider
+	 */
+	public long getRefreshCount() {
+		return refreshes.get();
+	}
+
+	/**
+	 * @return the current token, fetching it if missing or expired
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	public String getToken() throws SecurityException, RemoteException {
+		return getHeader().token.getToken();
+	}
+
+	/**
+	 * Discard the current token, so that a new one is fetched by the next call.
+	 */
+	public synchronized void invalidate() {
+		current = null;
+	}
+
+	TokenHeader getHeader() throws SecurityException, RemoteException {
+		TokenHeader header = current;
+		if (header != null && !header.token.isExpiring(refreshMargin)) {
+			return header;
+		}
+		if (header != null && !header.token.isExpiring(0)) {
+			return refresh(header, false);
+		}
+		return refresh(header, true);
+	}
+
+	/**
+	 * Refresh the token rejected by the remote host, unless already refreshed.
+	 * @param rejected
+	 * @return the new header
+	 */
+	TokenHeader refresh(TokenHeader rejected) throws SecurityException, RemoteException {
+		return refresh(rejected, true);
+	}
+
+	/**
+	 * @param stale header to replace
+	 * @param wait true to wait for the new token, false to refresh it in background
+	 * @return the new header, or the stale one if not waiting
+	 */
+	private TokenHeader refresh(TokenHeader stale, boolean wait) throws SecurityException, RemoteException {
+		FutureTask<TokenHeader> task;
+		boolean run = false;
+		synchronized (this) {
+			if (current != null && current != stale) {
+				return current;
+			}
+			task = pending;
+			if (task == null) {
+				task = new FutureTask<TokenHeader>(new Callable<TokenHeader>() {
+					public TokenHeader call() throws Exception {
+						try {
+							TokenHeader header = new TokenHeader(provider.fetchToken());
+							refreshes.incrementAndGet();
+							current = header;
+							return header;
+						} finally {
+							synchronized (TokenManager.this) {
+								pending = null;
+							}
+						}
+					}
+				});
+				pending = task;
+				run = true;
+			}
+		}
+		if (!wait) {
+			if (run) {
+				try {
+					AsyncRemoteConnector.getExecutor().execute(task);
+				} catch (RejectedExecutionException e) {
+					// run by the first call needing the new token
+				}
+			}
+			return stale;
+		}
+		// run the refresh here unless already running or done: a background refresh may still be queued 
+		// behind other work on the executor, or this thread may be one of the executor threads
+		task.run();
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException(e.getMessage(), e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SecurityException) {
+				throw (SecurityException) e.getCause();
+			}
+			throw RemoteFuture.unwrap(e);
+		}
+	}
+
+	/**
+	 * <code>Authorization</code> header of a managed token
+	 */
+	static class TokenHeader extends BasicHeader {
+		final AccessToken token;
+
+		TokenHeader(AccessToken token) {
+			super(RemoteConnector.RH_AUTH_TOKEN, RemoteConnector.bearer(token.getToken()));
+			this.token = token;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+/**
+ * Source of the access tokens used by the {@link RemoteConnector} calls performed 
+ * without an explicit token. See {@link TokenManager}.
+ */
+public interface TokenProvider {
+
+	/**
+	 * Obtain a new access token, e.g. with the OAuth2 refresh token or client credentials grant.
+	 * The calls performed here must pass their token explicitly.
+	 * @return the new token
+	 * @throws SecurityException if the credentials are not valid anymore
+	 * @throws RemoteException
+	 */
+	AccessToken fetchToken() throws SecurityException, RemoteException;
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * HTTP engine sending the {@link RemoteClient} requests. The default engine is the pooled
+ * Apache {@link org.apache.http.client.HttpClient}; another one can be selected with 
+ * {@link RemoteConnector#setTransport(Transport)} or {@link RemoteClient.Builder#setTransport(Transport)}. 
+ * Implementations must honour the connect and read timeouts and the 
+ * {@link RemoteClient#CLIENT_TYPE_PARAM client type} set in the request parameters.
+ * Besides the {@link UrlConnectionTransport}, the optional <code>transport-jdk11</code> module 
+ * provides an engine based on the HTTP client of the JDK 11, supporting HTTP/2.
+ */
+public interface Transport {
+
+	/**
+	 * Send the request. The response entity must release the connection once consumed,
+	 * and aborting the request must close the connection.
+	 * @param request
+	 * @return the response
+	 * @throws IOException
+	 */
+	HttpResponse execute(HttpUriRequest request) throws IOException;
+
+	/**
+	 * Close the connections held.
+	 */
+	void shutdown();
+}
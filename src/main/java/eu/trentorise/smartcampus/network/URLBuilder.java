@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds the request URIs of the REST calls: normalizes the service URL and appends 
+ * the query string, encoding parameter values as <code>application/x-www-form-urlencoded</code>
+ * UTF-8 (the same encoding of {@link java.net.URLEncoder}) in a single buffer.
+ */
+public class URLBuilder {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	/** max number of normalized service URLs kept in memory */
+	private static final int MAX_CACHED_URLS = 1024;
+
+	private static final ConcurrentMap<String, String> normalizedURLs = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Create the URI of the service call
+	 * @param host
+	 * @param service
+	 * @param parameters query parameters, may be null. List values are added as repeated parameters.
+	 * @return
+	 * @throws RemoteException if the URL is not valid
+	 */
+	public static URI build(String host, String service, Map<String, Object> parameters) throws RemoteException {
+		String url = normalizeURL(host + service);
+		if (parameters == null || parameters.isEmpty()) {
+			return createURI(url);
+		}
+		StringBuilder sb = new StringBuilder(url.length() + estimateQueryLength(parameters));
+		sb.append(url);
+		appendQueryString(sb, parameters);
+		return createURI(sb.toString());
+	}
+
+	/**
+	 * @param parameters
+	 * @return the query string, starting with '?', or an empty string if there are no parameters
+	 */
+	public static String queryString(Map<String, Object> parameters) {
+		if (parameters == null || parameters.isEmpty()) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder(estimateQueryLength(parameters));
+		appendQueryString(sb, parameters);
+		return sb.toString();
+	}
+
+	/**
+	 * Escape illegal characters of the URL, such as spaces in the path. 
+	 * The result is cached.
+	 * @param url
+	 * @return
+	 * @throws RemoteException if the URL is not valid
+	 */
+	public static String normalizeURL(String url) throws RemoteException {
+		String normalized = normalizedURLs.get(url);
+		if (normalized == null) {
+			try {
+				URL u = new URL(url);
+				URI uri = new URI(u.getProtocol(), u.getUserInfo(), u.getHost(), u.getPort(), u.getPath(), u.getQuery(), u.getRef());
+				normalized = uri.toURL().toString();
+			} catch (Exception e) {
+				throw new RemoteException(e.getMessage());
+			}
+			if (normalizedURLs.size() >= MAX_CACHED_URLS) {
+				normalizedURLs.clear();
+			}
+			normalizedURLs.put(url, normalized);
+		}
+		return normalized;
+	}
+
+	/**
+	 * Encode the value as <code>application/x-www-form-urlencoded</code> UTF-8 string
+	 * @param value
+	 * @return
+	 */
+	public static String encode(String value) {
+		int i = firstUnsafe(value);
+		if (i == value.length()) {
+			return value;
+		}
+		StringBuilder sb = new StringBuilder(value.length() + 16);
+		appendEncoded(sb, value);
+		return sb.toString();
+	}
+
+	private static URI createURI(String url) throws RemoteException {
+		try {
+			return new URI(url);
+		} catch (Exception e) {
+			throw new RemoteException(e.getMessage());
+		}
+	}
+
+	private static int estimateQueryLength(Map<String, Object> parameters) {
+		int length = 0;
+		for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+			int values = entry.getValue() instanceof List ? ((List<?>) entry.getValue()).size() : 1;
+			length += values * (entry.getKey().length() + 16);
+		}
+		return length;
+	}
+
+	private static void appendQueryString(StringBuilder sb, Map<String, Object> parameters) {
+		char separator = '?';
+		for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+			String param = entry.getKey();
+			Object value = entry.getValue();
+			if (value instanceof List) {
+				for (Object v : ((List<?>) value)) {
+					sb.append(separator).append(param).append('=');
+					if (v != null) {
+						appendEncoded(sb, v.toString());
+					}
+					separator = '&';
+				}
+			} else {
+				sb.append(separator).append(param).append('=');
+				if (value != null) {
+					appendEncoded(sb, value.toString());
+				}
+				separator = '&';
+			}
+		}
+	}
+
+	private static void appendEncoded(StringBuilder sb, String value) {
+		int length = value.length();
+		int i = firstUnsafe(value);
+		sb.append(value, 0, i);
+		while (i < length) {
+			char c = value.charAt(i);
+			if (isSafe(c)) {
+				sb.append(c);
+				i++;
+			} else if (c == ' ') {
+				sb.append('+');
+				i++;
+			} else if (c < 0x80) {
+				appendHex(sb, c);
+				i++;
+			} else {
+				// encode the whole run of non ASCII chars, to keep surrogate pairs together 
+				int end = i + 1;
+				while (end < length && value.charAt(end) >= 0x80) {
+					end++;
+				}
+				byte[] bytes = value.substring(i, end).getBytes(UTF8);
+				for (byte b : bytes) {
+					appendHex(sb, b & 0xFF);
+				}
+				i = end;
+			}
+		}
+	}
+
+	private static void appendHex(StringBuilder sb, int b) {
+		sb.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+	}
+
+	private static int firstUnsafe(String value) {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			if (!isSafe(value.charAt(i))) {
+				return i;
+			}
+		}
+		return length;
+	}
+
+	private static boolean isSafe(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') 
+				|| c == '.' || c == '-' || c == '*' || c == '_';
+	}
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpParams;
+
+/**
+ * {@link Transport} based on the JDK {@link HttpURLConnection}, relying on the keep-alive 
+ * connection cache of the JVM (see the <code>http.maxConnections</code> system property).
+ * Useful where the Apache client bundled with the platform is outdated, e.g. on Android.
+ */
+public class UrlConnectionTransport implements Transport {
+
+	public HttpResponse execute(HttpUriRequest request) throws IOException {
+		if (request.isAborted()) {
+			throw new IOException("Request aborted");
+		}
+		final HttpURLConnection conn = (HttpURLConnection) request.getURI().toURL().openConnection();
+		if (request instanceof AbortableHttpRequest) {
+			((AbortableHttpRequest) request).setReleaseTrigger(new ConnectionReleaseTrigger() {
+				public void releaseConnection() {
+				}
+
+				public void abortConnection() {
+					conn.disconnect();
+				}
+			});
+		}
+		HttpParams params = request.getParams();
+		if (conn instanceof HttpsURLConnection) {
+			Object param = params.getParameter(RemoteClient.CLIENT_TYPE_PARAM);
+			RemoteConnector.CLIENT_TYPE type = param != null ? (RemoteConnector.CLIENT_TYPE) param : RemoteConnector.getClientType();
+			if (type != RemoteConnector.CLIENT_TYPE.CLIENT_NORMAL) {
+				HttpsURLConnection https = (HttpsURLConnection) conn;
+				https.setSSLSocketFactory(RemoteConnector.getJsseSocketFactory(type));
+				https.setHostnameVerifier(RemoteConnector.getSSLSocketFactory(type).getHostnameVerifier());
+			}
+		}
+		conn.setRequestMethod(request.getMethod());
+		conn.setConnectTimeout(params.getIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, RemoteConnector.HTTP_REQUEST_TIMEOUT_MS));
+		conn.setReadTimeout(params.getIntParameter(CoreConnectionPNames.SO_TIMEOUT, RemoteConnector.HTTP_REQUEST_TIMEOUT_MS));
+		conn.setUseCaches(false);
+		for (Header header : request.getAllHeaders()) {
+			conn.addRequestProperty(header.getName(), header.getValue());
+		}
+
+		HttpEntity body = request instanceof HttpEntityEnclosingRequest ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+		if (body != null) {
+			writeBody(conn, body);
+		}
+
+		int status = conn.getResponseCode();
+		if (status < 0) {
+			throw new IOException("Invalid HTTP response from " + request.getURI());
+		}
+		BasicHttpResponse resp = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, status, conn.getResponseMessage()));
+		for (Map.Entry<String, List<String>> field : conn.getHeaderFields().entrySet()) {
+			if (field.getKey() != null) {
+				for (String value : field.getValue()) {
+					resp.addHeader(field.getKey(), value);
+				}
+			}
+		}
+		InputStream content = status < HttpURLConnection.HTTP_BAD_REQUEST ? conn.getInputStream() : conn.getErrorStream();
+		if (content != null) {
+			BasicHttpEntity entity = new ConnectionEntity(conn);
+			entity.setContent(content);
+			entity.setContentLength(conn.getContentLength());
+			entity.setContentType(conn.getContentType());
+			entity.setContentEncoding(conn.getContentEncoding());
+			resp.setEntity(DecompressingEntity.wrap(entity));
+		}
+		return resp;
+	}
+
+	private static void writeBody(HttpURLConnection conn, HttpEntity body) throws IOException {
+		conn.setDoOutput(true);
+		long length = body.getContentLength();
+		if (length >= 0 && length <= Integer.MAX_VALUE) {
+			conn.setFixedLengthStreamingMode((int) length);
+		} else {
+			conn.setChunkedStreamingMode(0);
+		}
+		if (body.getContentType() != null) {
+			conn.setRequestProperty(body.getContentType().getName(), body.getContentType().getValue());
+		}
+		if (body.getContentEncoding() != null) {
+			conn.setRequestProperty(body.getContentEncoding().getName(), body.getContentEncoding().getValue());
+		}
+		OutputStream out = conn.getOutputStream();
+		try {
+			body.writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Entity of the response body, closing the connection if aborted
+	 */
+	private static class ConnectionEntity extends BasicHttpEntity implements ConnectionReleaseTrigger {
+		private final HttpURLConnection conn;
+
+		ConnectionEntity(HttpURLConnection conn) {
+			this.conn = conn;
+		}
+
+		public void releaseConnection() throws IOException {
+			consumeContent();
+		}
+
+		public void abortConnection() throws IOException {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * The connections are kept by the JVM and cannot be closed.
+	 */
+	public void shutdown() {
+	}
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncRemoteConnectorTest {
+
+	private LocalServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalServer();
+		server.respond("/ok", 200, "{}");
+		server.respond("/slow", 200, "{}", 1000);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void resultsAreInOrderOfCalls() throws Exception {
+		List<Callable<String>> calls = new ArrayList<Callable<String>>();
+		calls.add(call("/slow"));
+		calls.add(call("/ok"));
+		calls.add(call("/missing"));
+		List<RemoteResult<String>> results = AsyncRemoteConnector.invokeAll(calls);
+		assertEquals("{}", results.get(0).getResult());
+		assertEquals("{}", results.get(1).getResult());
+		assertFalse(results.get(2).isSuccess());
+	}
+
+	@Test
+	public void timedOutCallsAreAborted() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		AsyncRemoteConnector.setExecutor(executor);
+		try {
+			List<Callable<String>> calls = new ArrayList<Callable<String>>();
+			calls.add(call("/slow"));
+			long start = System.currentTimeMillis();
+			List<RemoteResult<String>> results = AsyncRemoteConnector.invokeAll(calls, 200, TimeUnit.MILLISECONDS);
+			assertFalse(results.get(0).isSuccess());
+			// the only thread is free again once the request is aborted
+			assertEquals("{}", AsyncRemoteConnector.getJSONAsync(server.getHost(), "/ok", null).getResult());
+			assertTrue(System.currentTimeMillis() - start < 700);
+		} finally {
+			AsyncRemoteConnector.setExecutor(null);
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void asyncCallIsBoundToCallerDeadline() throws Exception {
+		RemoteFuture<String> future;
+		Deadline deadline = Deadline.start(200);
+		try {
+			future = AsyncRemoteConnector.getJSONAsync(server.getHost(), "/slow", null);
+		} finally {
+			deadline.end();
+		}
+		try {
+			future.getResult();
+			fail();
+		} catch (DeadlineExceededException e) {
+		}
+	}
+
+	private Callable<String> call(final String service) {
+		return new Callable<String>() {
+			public String call() throws Exception {
+				return RemoteConnector.getJSON(server.getHost(), service, null);
+			}
+		};
+	}
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+
+public class BulkheadTest {
+
+	@Test
+	public void callsOverLimitAreRejected() throws Exception {
+		Bulkhead bulkhead = new Bulkhead(2, 0, 0);
+		bulkhead.acquire("h", null);
+		bulkhead.acquire("h", null);
+		assertEquals(2, bulkhead.getInFlight("h"));
+		try {
+			bulkhead.acquire("h", null);
+			fail();
+		} catch (BulkheadFullException e) {
+			assertEquals(1, bulkhead.getRejectedCount());
+		}
+		// other hosts have their own limit
+		bulkhead.acquire("other", null);
+	}
+
+	@Test
+	public void queuedCallGetsReleasedSlot() throws Exception {
+		final Bulkhead bulkhead = new Bulkhead(1, 1, 5000);
+		final Bulkhead.HostLimit limit = bulkhead.acquire("h", null);
+		final AtomicBoolean acquired = new AtomicBoolean();
+		Thread waiting = new Thread() {
+			@Override
+			public void run() {
+				try {
+					bulkhead.acquire("h", null);
+					acquired.set(true);
+				} catch (RemoteException e) {
+				}
+			}
+		};
+		waiting.start();
+		Thread.sleep(50);
+		assertFalse(acquired.get());
+		limit.release(0, false);
+		waiting.join(1000);
+		assertTrue(acquired.get());
+		assertEquals(1, bulkhead.getInFlight("h"));
+	}
+
+	@Test
+	public void waitIsBoundedByMaxWait() throws Exception {
+		Bulkhead bulkhead = new Bulkhead(1, 1, 100);
+		bulkhead.acquire("h", null);
+		long start = System.currentTimeMillis();
+		try {
+			bulkhead.acquire("h", null);
+			fail();
+		} catch (BulkheadFullException e) {
+			assertTrue(System.currentTimeMillis() - start < 1000);
+		}
+	}
+
+	@Test
+	public void waitIsBoundedByDeadline() throws Exception {
+		Bulkhead bulkhead = new Bulkhead(1, 1, 5000);
+		bulkhead.acquire("h", null);
+		long start = System.currentTimeMillis();
+		Deadline deadline = Deadline.start(100);
+		try {
+			bulkhead.acquire("h", deadline);
+			fail();
+		} catch (BulkheadFullException e) {
+			assertTrue(System.currentTimeMillis() - start < 1000);
+		} finally {
+			deadline.end();
+		}
+	}
+
+	@Test
+	public void rejectedCallsDoNotResetCircuit() throws Exception {
+		LocalServer server = new LocalServer();
+		server.respond("/fail", 503, "");
+		RetryPolicy policy = new RetryPolicy();
+		policy.setMaxRetries(0);
+		Bulkhead bulkhead = new Bulkhead(1, 0, 0);
+		RemoteClient client = new RemoteClient.Builder().setRetryPolicy(policy).setBulkhead(bulkhead).build();
+		try {
+			for (int i = 0; i < 2; i++) {
+				try {
+					client.getJSON(server.getHost(), "/fail", null);
+					fail();
+				} catch (RemoteException e) {
+				}
+			}
+			String host = RemoteConnector.hostOf(new HttpGet(server.getHost()).getURI());
+			assertEquals(2, policy.getCircuitBreaker(host).getFailures());
+			bulkhead.acquire(host, null);
+			try {
+				client.getJSON(server.getHost(), "/fail", null);
+				fail();
+			} catch (BulkheadFullException e) {
+			}
+			assertEquals(2, policy.getCircuitBreaker(host).getFailures());
+		} finally {
+			client.shutdown();
+			server.stop();
+		}
+	}
+
+	@Test
+	public void failuresWithLargeBodyLowerAdaptiveLimit() throws Exception {
+		LocalServer server = new LocalServer();
+		server.respond("/fail", 503, RetryPolicyTest.largeBody());
+		RetryPolicy policy = new RetryPolicy();
+		policy.setMaxRetries(0);
+		Bulkhead bulkhead = new Bulkhead(10, 0, 0);
+		bulkhead.setAdaptive(1, 10, 1000);
+		RemoteClient client = new RemoteClient.Builder().setRetryPolicy(policy).setBulkhead(bulkhead).build();
+		try {
+			try {
+				client.getJSON(server.getHost(), "/fail", null);
+				fail();
+			} catch (HttpStatusException e) {
+			}
+			assertEquals(9, bulkhead.getLimit(RemoteConnector.hostOf(new HttpGet(server.getHost()).getURI())));
+		} finally {
+			client.shutdown();
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	@Test
+	public void opensAfterConsecutiveFailures() {
+		CircuitBreaker breaker = new CircuitBreaker(3, 10000);
+		breaker.onFailure();
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(3, breaker.getFailures());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void successResetsFailures() {
+		CircuitBreaker breaker = new CircuitBreaker(3, 10000);
+		breaker.onFailure();
+		breaker.onFailure();
+		breaker.onSuccess();
+		breaker.onFailure();
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(2, breaker.getFailures());
+	}
+
+	@Test
+	public void successfulProbeClosesCircuit() throws Exception {
+		CircuitBreaker breaker = halfOpen();
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+		breaker.onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.getFailures());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void failedProbeOpensCircuit() throws Exception {
+		CircuitBreaker breaker = halfOpen();
+		assertTrue(breaker.allowRequest());
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		Thread.sleep(60);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void releasedProbeLetsNextCallProbe() throws Exception {
+		CircuitBreaker breaker = halfOpen();
+		assertTrue(breaker.allowRequest());
+		breaker.release();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertEquals(1, breaker.getFailures());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void probeIsReleasedOnlyByItsThread() throws Exception {
+		final CircuitBreaker breaker = halfOpen();
+		assertTrue(breaker.allowRequest());
+		final AtomicBoolean allowed = new AtomicBoolean(true);
+		Thread other = new Thread() {
+			@Override
+			public void run() {
+				breaker.release();
+				allowed.set(breaker.allowRequest());
+			}
+		};
+		other.start();
+		other.join();
+		assertFalse(allowed.get());
+	}
+
+	private CircuitBreaker halfOpen() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(1, 50);
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Thread.sleep(60);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		return breaker;
+	}
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class CompressionTest {
+
+	private static final String BODY = "{\"items\":[\"compressed\",\"compressed\",\"compressed\",\"compressed\"]}";
+
+	private LocalServer server;
+	private volatile String acceptEncoding;
+	private volatile String contentEncoding;
+	private final AtomicInteger attempts = new AtomicInteger();
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalServer();
+		server.handle("/gzip", new Compressed("gzip", false));
+		server.handle("/deflate", new Compressed("deflate", true));
+		server.handle("/rawDeflate", new Compressed("deflate", false));
+		// fails the first request, then answers with the uncompressed request body
+		server.handle("/echo", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (attempts.incrementAndGet() == 1) {
+					LocalServer.send(exchange, 503, new byte[0]);
+					return;
+				}
+				contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+				InputStream in = exchange.getRequestBody();
+				if ("gzip".equals(contentEncoding)) {
+					in = new GZIPInputStream(in);
+				}
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				byte[] buffer = new byte[1024];
+				int n;
+				while ((n = in.read(buffer)) >= 0) {
+					body.write(buffer, 0, n);
+				}
+				LocalServer.send(exchange, 200, body.toByteArray());
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void gzipResponseIsDecompressed() throws Exception {
+		RemoteClient client = new RemoteClient.Builder().build();
+		try {
+			assertEquals(BODY, client.getJSON(server.getHost(), "/gzip", null));
+			assertEquals("gzip, deflate", acceptEncoding);
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	@Test
+	public void deflateResponseIsDecompressedWithOrWithoutZlibHeader() throws Exception {
+		RemoteClient client = new RemoteClient.Builder().build();
+		try {
+			assertEquals(BODY, client.getJSON(server.getHost(), "/deflate", null));
+			assertEquals(BODY, client.getJSON(server.getHost(), "/rawDeflate", null));
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	@Test
+	public void compressionIsNotAskedIfDisabled() throws Exception {
+		RemoteClient client = new RemoteClient.Builder().setCompressionEnabled(false).build();
+		try {
+			client.getJSON(server.getHost(), "/gzip", null);
+			assertNull(acceptEncoding);
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	@Test
+	public void gzipRequestBodyIsSentAgainOnRetry() throws Exception {
+		RemoteClient client = retryingClient(0);
+		try {
+			assertEquals(BODY, client.postJSON(server.getHost(), "/echo", BODY, null));
+			assertEquals(2, attempts.get());
+			assertEquals("gzip", contentEncoding);
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	@Test
+	public void gzipObjectBodyIsSentAgainOnRetry() throws Exception {
+		RemoteClient client = retryingClient(0);
+		try {
+			assertEquals("{\"name\":\"value\"}", client.postObject(server.getHost(), "/echo", 
+					Collections.singletonMap("name", "value"), null, null));
+			assertEquals(2, attempts.get());
+			assertEquals("gzip", contentEncoding);
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	@Test
+	public void requestBodyBelowThresholdIsNotCompressed() throws Exception {
+		RemoteClient client = retryingClient(1000);
+		try {
+			assertEquals(BODY, client.postJSON(server.getHost(), "/echo", BODY, null));
+			assertNull(contentEncoding);
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	private RemoteClient retryingClient(int gzipRequestThreshold) {
+		RetryPolicy policy = new RetryPolicy();
+		policy.setBackoff(0, 0);
+		policy.setRetryPost(true);
+		return new RemoteClient.Builder().setRetryPolicy(policy).setGzipRequestThreshold(gzipRequestThreshold).build();
+	}
+
+	/**
+	 * Answers with {@link #BODY} compressed with the specified encoding, recording the accepted encodings.
+	 */
+	private class Compressed implements HttpHandler {
+		private final String encoding;
+		private final boolean zlib;
+
+		/**
+		 * @param encoding gzip or deflate
+		 * @param zlib whether the deflate body has the zlib header
+		 */
+		Compressed(String encoding, boolean zlib) {
+			this.encoding = encoding;
+			this.zlib = zlib;
+		}
+
+		public void handle(HttpExchange exchange) throws IOException {
+			acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			OutputStream out = "gzip".equals(encoding) ? new GZIPOutputStream(buffer) 
+					: new DeflaterOutputStream(buffer, new Deflater(Deflater.DEFAULT_COMPRESSION, !zlib));
+			out.write(BODY.getBytes("UTF-8"));
+			out.close();
+			exchange.getResponseHeaders().set("Content-Encoding", encoding);
+			LocalServer.send(exchange, 200, buffer.toByteArray());
+		}
+	}
+}
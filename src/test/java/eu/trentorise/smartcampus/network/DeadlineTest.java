@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class DeadlineTest {
+
+	private LocalServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalServer();
+		server.respond("/ok", 200, "{}");
+		server.respond("/fail", 503, "");
+		server.respond("/slow", 200, "{}", 1000);
+		server.handle("/stall", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(200, 0);
+				exchange.getResponseBody().write("[1,".getBytes());
+				exchange.getResponseBody().flush();
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void nestedDeadlineCannotExtendEnclosingOne() {
+		Deadline outer = Deadline.start(100);
+		try {
+			Deadline inner = Deadline.start(10000);
+			assertSame(inner, Deadline.current());
+			assertTrue(inner.getRemaining() <= 100);
+			inner.end();
+			assertSame(outer, Deadline.current());
+		} finally {
+			outer.end();
+		}
+		assertNull(Deadline.current());
+	}
+
+	@Test
+	public void expiredCallIsAborted() throws Exception {
+		RemoteClient client = new RemoteClient.Builder().build();
+		long start = System.currentTimeMillis();
+		Deadline deadline = Deadline.start(200);
+		try {
+			client.getJSON(server.getHost(), "/slow", null);
+			fail();
+		} catch (DeadlineExceededException e) {
+			assertTrue(System.currentTimeMillis() - start < 800);
+		} finally {
+			deadline.end();
+			client.shutdown();
+		}
+	}
+
+	@Test
+	public void callTimeoutBoundsEachCall() throws Exception {
+		RemoteClient client = new RemoteClient.Builder().setCallTimeout(200).build();
+		try {
+			client.getJSON(server.getHost(), "/slow", null);
+			fail();
+		} catch (DeadlineExceededException e) {
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	@Test
+	public void probeAbortedBeforeResponseIsReleased() throws Exception {
+		assertAbortedProbeReleased("/slow");
+	}
+
+	@Test
+	public void probeAbortedWhileReadingIsReleased() throws Exception {
+		assertAbortedProbeReleased("/stall");
+	}
+
+	@Test
+	public void coalescedCallWaitsUntilItsOwnDeadline() throws Exception {
+		RequestCoalescer coalescer = new RequestCoalescer();
+		final RemoteClient client = new RemoteClient.Builder().setRequestCoalescer(coalescer).build();
+		Thread leader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					client.getJSON(server.getHost(), "/slow", null);
+				} catch (RemoteException e) {
+				}
+			}
+		};
+		try {
+			leader.start();
+			Thread.sleep(100);
+			long start = System.currentTimeMillis();
+			Deadline deadline = Deadline.start(200);
+			try {
+				client.getJSON(server.getHost(), "/slow", null);
+				fail();
+			} catch (DeadlineExceededException e) {
+				assertTrue(System.currentTimeMillis() - start < 600);
+			} finally {
+				deadline.end();
+			}
+			assertEquals(1, coalescer.getCoalescedCount());
+			leader.join();
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	@Test
+	public void coalescedCallOutlivesExpiredLeader() throws Exception {
+		server.respond("/medium", 200, "{}", 400);
+		RequestCoalescer coalescer = new RequestCoalescer();
+		final RemoteClient client = new RemoteClient.Builder().setRequestCoalescer(coalescer).build();
+		final Exception[] failure = new Exception[1];
+		Thread leader = new Thread() {
+			@Override
+			public void run() {
+				Deadline deadline = Deadline.start(200);
+				try {
+					client.getJSON(server.getHost(), "/medium", null);
+				} catch (Exception e) {
+					failure[0] = e;
+				} finally {
+					deadline.end();
+				}
+			}
+		};
+		try {
+			leader.start();
+			Thread.sleep(50);
+			assertEquals("{}", client.getJSON(server.getHost(), "/medium", null));
+			leader.join();
+			assertTrue(failure[0] instanceof DeadlineExceededException);
+			assertEquals(2, server.getHits("/medium"));
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	@Test(timeout = 5000)
+	public void failedCallDoesNotWaitForQueuedHedge() throws Exception {
+		server.respond("/unavailable", 503, "", 300);
+		HedgePolicy policy = new HedgePolicy(50);
+		policy.setSamples(1, 10);
+		policy.setDelayBounds(20, 20);
+		RemoteClient client = new RemoteClient.Builder().setHedgePolicy(policy).build();
+		final CountDownLatch busy = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			client.getJSON(server.getHost(), "/ok", null);
+			AsyncRemoteConnector.setExecutor(executor);
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						busy.await();
+					} catch (InterruptedException e) {
+					}
+				}
+			});
+			long start = System.currentTimeMillis();
+			try {
+				client.getJSON(server.getHost(), "/unavailable", null);
+				fail();
+			} catch (RemoteException e) {
+				assertTrue(System.currentTimeMillis() - start < 1000);
+			}
+			assertEquals(1, policy.getHedgeCount());
+			assertEquals(1, server.getHits("/unavailable"));
+		} finally {
+			busy.countDown();
+			AsyncRemoteConnector.setExecutor(null);
+			executor.shutdown();
+			client.shutdown();
+		}
+	}
+
+	@Test
+	public void failedCallIsRecoveredByHedge() throws Exception {
+		final AtomicInteger requests = new AtomicInteger();
+		server.handle("/flaky", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (requests.incrementAndGet() == 1) {
+					try {
+						Thread.sleep(300);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					LocalServer.send(exchange, 503, new byte[0]);
+				} else {
+					LocalServer.send(exchange, 200, "{}".getBytes());
+				}
+			}
+		});
+		HedgePolicy policy = new HedgePolicy(50);
+		policy.setSamples(1, 10);
+		policy.setDelayBounds(20, 20);
+		RemoteClient client = new RemoteClient.Builder().setHedgePolicy(policy).build();
+		try {
+			client.getJSON(server.getHost(), "/ok", null);
+			assertEquals("{}", client.getJSON(server.getHost(), "/flaky", null));
+			assertEquals(1, policy.getWinCount());
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	private void assertAbortedProbeReleased(String path) throws Exception {
+		RetryPolicy policy = new RetryPolicy();
+		policy.setMaxRetries(0);
+		policy.setCircuitBreaker(1, 50);
+		RemoteClient client = new RemoteClient.Builder().setRetryPolicy(policy).build();
+		try {
+			try {
+				client.getJSON(server.getHost(), "/fail", null);
+				fail();
+			} catch (RemoteException e) {
+			}
+			Thread.sleep(60);
+			Deadline deadline = Deadline.start(100);
+			try {
+				client.getJSON(server.getHost(), path, null);
+				fail();
+			} catch (DeadlineExceededException e) {
+			} finally {
+				deadline.end();
+			}
+			CircuitBreaker breaker = policy.getCircuitBreaker(RemoteConnector.hostOf(new HttpGet(server.getHost()).getURI()));
+			assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+			assertEquals(1, breaker.getFailures());
+			assertEquals("{}", client.getJSON(server.getHost(), "/ok", null));
+			assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		} finally {
+			client.shutdown();
+		}
+	}
+}
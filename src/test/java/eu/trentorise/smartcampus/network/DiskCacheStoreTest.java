@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import eu.trentorise.smartcampus.network.ResponseCache.CachedResponse;
+
+public class DiskCacheStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = new File(folder.getRoot(), "responses.cache");
+	}
+
+	@Test
+	public void responsesAreLoadedOnOpen() throws Exception {
+		DiskCacheStore store = new DiskCacheStore(file, 1 << 20);
+		store.put("a", response("A", "\"1\""));
+		store.put("b", response("B", null));
+		store.put("a", response("A2", "\"2\""));
+		store.remove("b");
+		store.close();
+
+		store = new DiskCacheStore(file, 1 << 20);
+		assertEquals(1, store.size());
+		CachedResponse a = store.get("a");
+		assertEquals("A2", a.body);
+		assertEquals("\"2\"", a.etag);
+		assertNull(store.get("b"));
+		store.close();
+	}
+
+	@Test
+	public void truncatedRecordIsDiscarded() throws Exception {
+		DiskCacheStore store = new DiskCacheStore(file, 1 << 20);
+		store.put("a", response("A", null));
+		long complete = store.getFileSize();
+		store.put("b", response("BBBBBBBBBB", null));
+		store.close();
+		RandomAccessFile data = new RandomAccessFile(file, "rw");
+		data.setLength(data.length() - 3);
+		data.close();
+
+		store = new DiskCacheStore(file, 1 << 20);
+		assertEquals(1, store.size());
+		assertEquals(complete, store.getFileSize());
+		store.put("c", response("C", null));
+		store.close();
+
+		store = new DiskCacheStore(file, 1 << 20);
+		assertEquals("A", store.get("a").body);
+		assertEquals("C", store.get("c").body);
+		store.close();
+	}
+
+	@Test
+	public void corruptedRecordIsDiscarded() throws Exception {
+		DiskCacheStore store = new DiskCacheStore(file, 1 << 20);
+		store.put("a", response("A", null));
+		long complete = store.getFileSize();
+		store.put("b", response("BBBBBBBBBB", null));
+		store.close();
+		// invalid UTF-8 in the key of the second record
+		RandomAccessFile data = new RandomAccessFile(file, "rw");
+		data.seek(complete + 2);
+		data.write(0xFF);
+		data.close();
+
+		store = new DiskCacheStore(file, 1 << 20);
+		assertEquals(1, store.size());
+		assertEquals(complete, store.getFileSize());
+		store.put("c", response("C", null));
+		store.close();
+
+		store = new DiskCacheStore(file, 1 << 20);
+		assertEquals("A", store.get("a").body);
+		assertEquals("C", store.get("c").body);
+		store.close();
+	}
+
+	@Test
+	public void compactionKeepsRecentResponses() throws Exception {
+		DiskCacheStore store = new DiskCacheStore(file, 1 << 20);
+		for (int i = 0; i < 100; i++) {
+			store.put("k" + i, response(body(i, 1000), null));
+		}
+		store.put("k50", response("updated", null));
+		store.remove("k99");
+		assertTrue(store.getFileSize() > 100 * 1000);
+		// as if the file was over a limit of 20 KB
+		DiskCacheStore small = new DiskCacheStore(file, 20 * 1000);
+		store.close();
+		small.compact();
+		assertTrue(small.getFileSize() < 10 * 1000);
+		assertEquals("updated", small.get("k50").body);
+		assertEquals(body(98, 1000), small.get("k98").body);
+		assertNull(small.get("k99"));
+		assertNull(small.get("k0"));
+		int size = small.size();
+		small.close();
+
+		store = new DiskCacheStore(file, 20 * 1000);
+		assertEquals(size, store.size());
+		assertEquals("updated", store.get("k50").body);
+		store.close();
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void storesBeyondMaxSizeAreCompactedInBackground() throws Exception {
+		DiskCacheStore store = new DiskCacheStore(file, 20 * 1000);
+		for (int i = 0; i < 200; i++) {
+			store.put("k" + i, response(body(i, 500), null));
+			assertEquals(body(i, 500), store.get("k" + i).body);
+		}
+		for (int i = 0; i < 100 && store.getFileSize() > 20 * 1000; i++) {
+			Thread.sleep(20);
+		}
+		assertTrue(store.getFileSize() <= 20 * 1000);
+		assertEquals(body(199, 500), store.get("k199").body);
+		store.close();
+
+		store = new DiskCacheStore(file, 20 * 1000);
+		assertEquals(body(199, 500), store.get("k199").body);
+		store.close();
+	}
+
+	@Test
+	public void fileMovedAsideIsRecovered() throws Exception {
+		DiskCacheStore store = new DiskCacheStore(file, 1 << 20);
+		store.put("a", response("A", null));
+		store.close();
+		assertTrue(file.renameTo(new File(file.getPath() + ".old")));
+
+		store = new DiskCacheStore(file, 1 << 20);
+		assertEquals("A", store.get("a").body);
+		store.close();
+	}
+
+	@Test
+	public void credentialsAreNotStored() throws Exception {
+		LocalServer server = new LocalServer();
+		server.handle("/data", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+				LocalServer.send(exchange, 200, "{\"a\":1}".getBytes("UTF-8"));
+			}
+		});
+		try {
+			for (int i = 1; i <= 2; i++) {
+				DiskCacheStore store = new DiskCacheStore(file, 1 << 20);
+				ResponseCache cache = new ResponseCache(100, 1 << 20);
+				cache.setDiskStore(store);
+				RemoteClient client = new RemoteClient.Builder().setResponseCache(cache).build();
+				assertEquals("{\"a\":1}", client.getJSON(server.getHost(), "/data", "secret-token"));
+				client.shutdown();
+				store.close();
+				// the second client finds the response stored by the first
+				assertEquals(1, server.getHits("/data"));
+			}
+		} finally {
+			server.stop();
+		}
+		byte[] content = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			assertEquals(content.length, in.read(content));
+		} finally {
+			in.close();
+		}
+		String stored = new String(content, "ISO-8859-1");
+		assertTrue(stored.contains("/data"));
+		assertFalse(stored.contains("secret-token"));
+	}
+
+	private static CachedResponse response(String body, String etag) {
+		CachedResponse cached = new CachedResponse();
+		cached.body = body;
+		cached.expires = System.currentTimeMillis() + 60000;
+		cached.etag = etag;
+		return cached;
+	}
+
+	private static String body(int i, int length) {
+		StringBuilder body = new StringBuilder();
+		while (body.length() < length) {
+			body.append(i).append(' ');
+		}
+		return body.toString();
+	}
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JsonUtilsTest {
+
+	@Test
+	public void bytesRoundTrip() throws Exception {
+		byte[] json = JsonUtils.toJSONBytes(new Item("a", 1));
+		assertEquals("{\"name\":\"a\",\"count\":1}", new String(json, "UTF-8"));
+		Item item = JsonUtils.toObject(json, Item.class);
+		assertEquals("a", item.getName());
+		assertEquals(1, item.getCount());
+		assertEquals(1, JsonUtils.toObject("{\"name\":\"a\",\"count\":1}", Item.class).getCount());
+	}
+
+	@Test
+	public void collectionsAreTyped() {
+		JsonUtils.prepare(Item.class);
+		String array = "[{\"name\":\"a\",\"count\":1},{\"name\":\"b\",\"count\":2}]";
+		List<Item> list = JsonUtils.toObjectList(array, Item.class);
+		assertEquals(2, list.size());
+		assertEquals("b", list.get(1).getName());
+		Item[] items = JsonUtils.toObjectArray(array, Item.class);
+		assertEquals(2, items[1].getCount());
+		Map<String, Item> map = JsonUtils.toObjectMap("{\"x\":{\"name\":\"a\",\"count\":1}}", Item.class);
+		assertEquals("a", map.get("x").getName());
+	}
+
+	@Test
+	public void invalidJsonGivesNull() {
+		assertNull(JsonUtils.toObject("{", Item.class));
+		assertNull(JsonUtils.toObject(new byte[] { '[' }, Item.class));
+		assertNull(JsonUtils.toObjectList("{}", Item.class));
+	}
+
+	public static class Item {
+		private String name;
+		private int count;
+
+		public Item() {
+		}
+
+		Item(String name, int count) {
+			this.name = name;
+			this.count = count;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public void setCount(int count) {
+			this.count = count;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server of the tests, answering each path with a fixed response.
+ */
+class LocalServer {
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<String, AtomicInteger>();
+
+	LocalServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return the host to pass to the {@link RemoteClient} calls
+	 */
+	String getHost() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Answer the path with the status and the body, after a delay
+	 * @param path
+	 * @param status
+	 * @param body
+	 * @param delay in ms
+	 */
+	void respond(String path, final int status, final String body, final long delay) {
+		handle(path, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (delay > 0) {
+					try {
+						Thread.sleep(delay);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				send(exchange, status, body.getBytes("UTF-8"));
+			}
+		});
+	}
+
+	void respond(String path, int status, String body) {
+		respond(path, status, body, 0);
+	}
+
+	void handle(final String path, final HttpHandler handler) {
+		hits.put(path, new AtomicInteger());
+		server.createContext(path, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				hits.get(path).incrementAndGet();
+				try {
+					handler.handle(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param path
+	 * @return number of requests received on the path
+	 */
+	int getHits(String path) {
+		return hits.get(path).get();
+	}
+
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		while (in.read() >= 0) {
+		}
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		if (body.length > 0) {
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class PageIteratorTest {
+
+	private LocalServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalServer();
+		server.handle("/items", new Pages(7, Integer.MAX_VALUE));
+		server.handle("/capped", new Pages(7, 2));
+		server.handle("/slow", new Pages(7, Integer.MAX_VALUE, 1000));
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void iteratesAllPages() {
+		PageIterator<Integer> it = new PageIterator<Integer>(server.getHost(), "/items", null, null, Integer.class, 3);
+		List<Integer> items = new ArrayList<Integer>();
+		while (it.hasNext()) {
+			items.add(it.next());
+		}
+		assertEquals(7, items.size());
+		for (int i = 0; i < 7; i++) {
+			assertEquals(i, items.get(i).intValue());
+		}
+		assertEquals(3, server.getHits("/items"));
+	}
+
+	@Test
+	public void fullLastPageEndsWithEmptyPage() {
+		PageIterator<Integer> it = new PageIterator<Integer>(server.getHost(), "/items", null, null, Integer.class, 7);
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		assertEquals(7, count);
+		assertEquals(2, server.getHits("/items"));
+	}
+
+	@Test
+	public void cappedPageEndsIteration() {
+		PageIterator<Integer> it = new PageIterator<Integer>(server.getHost(), "/capped", null, null, Integer.class, 3);
+		assertEquals(0, it.next().intValue());
+		assertEquals(1, it.next().intValue());
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void nonPositivePageSizeIsRejected() {
+		try {
+			new PageIterator<Integer>(server.getHost(), "/items", null, null, Integer.class, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(0, server.getHits("/items"));
+	}
+
+	@Test
+	public void pagesAreRequestedByGivenClient() {
+		final AtomicInteger calls = new AtomicInteger();
+		RemoteClient client = new RemoteClient.Builder().setCallListener(new RemoteCallListener() {
+			public void callStarted(HttpUriRequest request) {
+				calls.incrementAndGet();
+			}
+
+			public void callCompleted(RemoteCallInfo call) {
+			}
+		}).build();
+		try {
+			PageIterator<Integer> it = new PageIterator<Integer>(client, server.getHost(), "/items", null, null, Integer.class, 5);
+			int count = 0;
+			while (it.hasNext()) {
+				it.next();
+				count++;
+			}
+			assertEquals(7, count);
+			assertEquals(2, calls.get());
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	@Test
+	public void iterationOnBusyExecutorDoesNotWaitForQueuedPrefetch() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		AsyncRemoteConnector.setExecutor(executor);
+		try {
+			// the iteration runs on the only executor thread: its prefetches can never start
+			Future<Integer> future = executor.submit(new Callable<Integer>() {
+				public Integer call() {
+					PageIterator<Integer> it = new PageIterator<Integer>(server.getHost(), "/items", null, null, Integer.class, 3);
+					int count = 0;
+					while (it.hasNext()) {
+						it.next();
+						count++;
+					}
+					return count;
+				}
+			});
+			assertEquals(7, future.get(5, TimeUnit.SECONDS).intValue());
+		} finally {
+			AsyncRemoteConnector.setExecutor(null);
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void prefetchIsBoundToCallerDeadline() {
+		PageIterator<Integer> it = new PageIterator<Integer>(server.getHost(), "/slow", null, null, Integer.class, 3);
+		Deadline deadline = Deadline.start(200);
+		try {
+			assertTrue(it.hasNext());
+		} finally {
+			deadline.end();
+		}
+		for (int i = 0; i < 3; i++) {
+			it.next();
+		}
+		long start = System.currentTimeMillis();
+		try {
+			it.hasNext();
+			fail();
+		} catch (RemoteIterationException e) {
+			assertTrue(e.getCause() instanceof DeadlineExceededException);
+		}
+		assertTrue(System.currentTimeMillis() - start < 800);
+	}
+
+	/**
+	 * List of consecutive integers, paged by the start and count parameters.
+	 */
+	private static class Pages implements HttpHandler {
+		private final int size;
+		private final int maxCount;
+		private final long delay;
+
+		Pages(int size, int maxCount) {
+			this(size, maxCount, 0);
+		}
+
+		/**
+		 * @param delay delay of the pages after the first one, in milliseconds
+		 */
+		Pages(int size, int maxCount, long delay) {
+			this.size = size;
+			this.maxCount = maxCount;
+			this.delay = delay;
+		}
+
+		public void handle(HttpExchange exchange) throws IOException {
+			int start = 0;
+			int count = 0;
+			for (String parameter : exchange.getRequestURI().getQuery().split("&")) {
+				String[] pair = parameter.split("=");
+				if ("start".equals(pair[0])) {
+					start = Integer.parseInt(pair[1]);
+				} else if ("count".equals(pair[0])) {
+					count = Integer.parseInt(pair[1]);
+				}
+			}
+			if (start > 0 && delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			StringBuilder body = new StringBuilder("[");
+			for (int i = start; i < Math.min(size, start + Math.min(count, maxCount)); i++) {
+				body.append(i > start ? "," : "").append(i);
+			}
+			LocalServer.send(exchange, 200, body.append(']').toString().getBytes("UTF-8"));
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class RemoteBatchTest {
+
+	private LocalServer server;
+	private RemoteClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalServer();
+		server.respond("/one", 200, "[1]");
+		server.respond("/two", 200, "[2]", 100);
+		server.respond("/missing", 404, "");
+		client = new RemoteClient.Builder().setMaxConnections(2, 2).build();
+	}
+
+	@After
+	public void tearDown() {
+		client.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void resultsFollowRequestOrder() throws Exception {
+		RemoteBatch batch = new RemoteBatch(client, server.getHost(), null);
+		List<RemoteResult<String>> results = batch.execute(Arrays.asList(
+				BatchRequest.get("/two", null), BatchRequest.get("/missing", null), BatchRequest.get("/one", null)));
+		assertEquals(3, results.size());
+		assertEquals("[2]", results.get(0).getResult());
+		assertFalse(results.get(1).isSuccess());
+		assertEquals("[1]", results.get(2).getResult());
+	}
+
+	@Test
+	public void parallelismIsCappedByClientPool() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger max = new AtomicInteger();
+		server.handle("/count", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				int now = running.incrementAndGet();
+				while (max.get() < now && !max.compareAndSet(max.get(), now)) {
+				}
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+				LocalServer.send(exchange, 200, "[]".getBytes("UTF-8"));
+			}
+		});
+		List<BatchRequest> requests = new ArrayList<BatchRequest>();
+		for (int i = 0; i < 6; i++) {
+			requests.add(BatchRequest.get("/count", null));
+		}
+		RemoteBatch batch = new RemoteBatch(client, server.getHost(), null);
+		for (RemoteResult<String> result : batch.execute(requests)) {
+			assertTrue(result.isSuccess());
+		}
+		assertEquals(6, server.getHits("/count"));
+		assertTrue(max.get() <= 2);
+	}
+
+	@Test
+	public void batchOnBusyExecutorDoesNotWaitForQueuedWorkers() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		AsyncRemoteConnector.setExecutor(executor);
+		try {
+			final List<BatchRequest> requests = new ArrayList<BatchRequest>();
+			for (int i = 0; i < 4; i++) {
+				requests.add(BatchRequest.get("/one", null));
+			}
+			// the batch runs on the only executor thread: its workers can never start
+			Future<List<RemoteResult<String>>> future = executor.submit(new Callable<List<RemoteResult<String>>>() {
+				public List<RemoteResult<String>> call() {
+					return new RemoteBatch(client, server.getHost(), null).execute(requests);
+				}
+			});
+			for (RemoteResult<String> result : future.get(5, TimeUnit.SECONDS)) {
+				assertEquals("[1]", result.getResult());
+			}
+		} finally {
+			AsyncRemoteConnector.setExecutor(null);
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void runtimeExceptionOnCallingThreadStopsWorkers() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		AsyncRemoteConnector.setExecutor(executor);
+		final CountDownLatch busy = new CountDownLatch(1);
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						busy.await();
+					} catch (InterruptedException e) {
+					}
+				}
+			});
+			Object invalid = new Object() {
+				@Override
+				public String toString() {
+					throw new IllegalStateException("invalid parameter");
+				}
+			};
+			List<BatchRequest> requests = new ArrayList<BatchRequest>();
+			requests.add(BatchRequest.get("/one", Collections.<String, Object>singletonMap("p", invalid)));
+			requests.add(BatchRequest.get("/two", null));
+			requests.add(BatchRequest.get("/two", null));
+			try {
+				new RemoteBatch(client, server.getHost(), null).execute(requests);
+				fail();
+			} catch (IllegalStateException e) {
+				// the calling thread took the invalid request
+			}
+			busy.countDown();
+			Thread.sleep(300);
+			// the queued worker does not run the batch after the caller gave up on it
+			assertEquals(0, server.getHits("/two"));
+		} finally {
+			busy.countDown();
+			AsyncRemoteConnector.setExecutor(null);
+			executor.shutdownNow();
+		}
+	}
+}
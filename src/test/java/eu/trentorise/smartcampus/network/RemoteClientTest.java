@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class RemoteClientTest {
+
+	private LocalServer server;
+	private RemoteClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalServer();
+		server.respond("/list", 200, "[1,2,3]");
+		server.respond("/slow", 200, "[]", 500);
+		server.handle("/large", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream out = exchange.getResponseBody();
+				out.write('[');
+				try {
+					for (int i = 0; i < 200; i++) {
+						out.write((i + ",").getBytes());
+						out.flush();
+						Thread.sleep(10);
+					}
+					out.write("0]".getBytes());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (IOException e) {
+					// client gone
+				}
+			}
+		});
+		server.handle("/largeError", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(400, 0);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(new byte[5000]);
+					out.flush();
+					for (int i = 0; i < 200; i++) {
+						out.write(new byte[100]);
+						out.flush();
+						Thread.sleep(10);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (IOException e) {
+					// client gone
+				}
+			}
+		});
+		client = new RemoteClient.Builder().setMaxConnections(2, 2).setPoolTimeout(1000).build();
+	}
+
+	@After
+	public void tearDown() {
+		client.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void replacedPoolCompletesCallsInProgress() throws Exception {
+		final String[] result = new String[1];
+		Thread call = new Thread() {
+			@Override
+			public void run() {
+				try {
+					result[0] = RemoteConnector.getJSON(server.getHost(), "/slow", null);
+				} catch (Exception e) {
+					result[0] = e.toString();
+				}
+			}
+		};
+		int perRoute = RemoteConnector.HTTP_MAX_CONNECTIONS_PER_ROUTE;
+		try {
+			RemoteConnector.getJSON(server.getHost(), "/list", null);
+			call.start();
+			Thread.sleep(100);
+			RemoteConnector.HTTP_MAX_CONNECTIONS_PER_ROUTE = perRoute + 1;
+			assertEquals("[1,2,3]", RemoteConnector.getJSON(server.getHost(), "/list", null));
+			call.join();
+			assertEquals("[]", result[0]);
+			// not closed and sent again
+			assertEquals(1, server.getHits("/slow"));
+		} finally {
+			RemoteConnector.HTTP_MAX_CONNECTIONS_PER_ROUTE = perRoute;
+		}
+	}
+
+	@Test
+	public void callsRacingWithPoolReplacementSucceed() throws Exception {
+		final int perRoute = RemoteConnector.HTTP_MAX_CONNECTIONS_PER_ROUTE;
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicBoolean done = new AtomicBoolean();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 200; j++) {
+							RemoteConnector.getJSON(server.getHost(), "/list", null);
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+		Thread replacing = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; !done.get(); i++) {
+					RemoteConnector.HTTP_MAX_CONNECTIONS_PER_ROUTE = perRoute + i % 2;
+					Thread.yield();
+				}
+			}
+		};
+		try {
+			replacing.start();
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} finally {
+			done.set(true);
+			replacing.join();
+			RemoteConnector.HTTP_MAX_CONNECTIONS_PER_ROUTE = perRoute;
+		}
+		assertNull(String.valueOf(failure.get()), failure.get());
+	}
+
+	@Test
+	public void typedCalls() throws Exception {
+		assertEquals(3, client.getJSON(server.getHost(), "/list", null, null, int[].class).length);
+		final int[] sum = new int[1];
+		int count = client.getJSONStream(server.getHost(), "/list", null, null, Integer.class, new JsonUtils.ObjectHandler<Integer>() {
+			public boolean handle(Integer object) {
+				sum[0] += object;
+				return true;
+			}
+		});
+		assertEquals(3, count);
+		assertEquals(6, sum[0]);
+	}
+
+	@Test
+	public void failingHandlerReleasesConnection() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			try {
+				client.getJSONStream(server.getHost(), "/list", null, null, Integer.class, new JsonUtils.ObjectHandler<Integer>() {
+					public boolean handle(Integer object) {
+						throw new IllegalArgumentException();
+					}
+				});
+				fail();
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		assertEquals("[1,2,3]", client.getJSON(server.getHost(), "/list", null));
+	}
+
+	@Test
+	public void stoppedReadDiscardsRestOfBody() throws Exception {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			int count = client.getJSONStream(server.getHost(), "/large", null, null, Integer.class, new JsonUtils.ObjectHandler<Integer>() {
+				public boolean handle(Integer object) {
+					return false;
+				}
+			});
+			assertEquals(1, count);
+		}
+		// each full body takes 2 seconds
+		assertTrue(System.currentTimeMillis() - start < 1500);
+		assertEquals("[1,2,3]", client.getJSON(server.getHost(), "/list", null));
+	}
+
+	@Test
+	public void errorResponsesAreTyped() throws Exception {
+		server.respond("/missing", 404, "not found");
+		server.respond("/denied", 401, "");
+		try {
+			client.getJSON(server.getHost(), "/missing", null);
+			fail();
+		} catch (HttpStatusException e) {
+			assertEquals(404, e.getStatus());
+			assertTrue(e.isClientError());
+			assertEquals("not found", e.getErrorBody());
+		}
+		try {
+			client.getJSON(server.getHost(), "/denied", null);
+			fail();
+		} catch (RemoteSecurityException e) {
+			assertEquals(401, e.getStatus());
+		}
+	}
+
+	@Test
+	public void truncatedErrorBodyIsNotDownloaded() throws Exception {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			try {
+				client.getJSON(server.getHost(), "/largeError", null);
+				fail();
+			} catch (HttpStatusException e) {
+				assertEquals(400, e.getStatus());
+			}
+		}
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals("[1,2,3]", client.getJSON(server.getHost(), "/list", null));
+	}
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestCoalescerTest {
+
+	private static final int THREADS = 5;
+
+	private LocalServer server;
+	private RequestCoalescer coalescer;
+	private RemoteClient client;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalServer();
+		server.respond("/slow", 200, "[1]", 300);
+		server.respond("/fail", 500, "", 300);
+		coalescer = new RequestCoalescer();
+		client = new RemoteClient.Builder().setRequestCoalescer(coalescer).build();
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		client.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void identicalCallsReachServerOnce() throws Exception {
+		for (Future<String> future : getConcurrently("/slow", null)) {
+			assertEquals("[1]", future.get());
+		}
+		assertEquals(1, server.getHits("/slow"));
+		assertEquals(1, coalescer.getExecutedCount());
+		assertEquals(THREADS - 1, coalescer.getCoalescedCount());
+		assertEquals(0, coalescer.getInFlightCount());
+	}
+
+	@Test
+	public void failureReachesEveryWaiter() throws Exception {
+		for (Future<String> future : getConcurrently("/fail", null)) {
+			try {
+				future.get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof RemoteException);
+			}
+		}
+		assertEquals(1, server.getHits("/fail"));
+		assertEquals(0, coalescer.getInFlightCount());
+	}
+
+	@Test
+	public void callsWithDifferentTokensAreNotCoalesced() throws Exception {
+		Future<String> first = getAsync("/slow", "token1", null);
+		Future<String> second = getAsync("/slow", "token2", null);
+		assertEquals("[1]", first.get());
+		assertEquals("[1]", second.get());
+		assertEquals(2, server.getHits("/slow"));
+	}
+
+	@Test
+	public void waiterRepeatsCallFailedByAnotherDeadline() throws Exception {
+		Future<String> expiring = getAsync("/slow", null, 100L);
+		Thread.sleep(50);
+		Future<String> waiting = getAsync("/slow", null, null);
+		try {
+			expiring.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof DeadlineExceededException);
+		}
+		assertEquals("[1]", waiting.get());
+		assertEquals(2, server.getHits("/slow"));
+	}
+
+	/**
+	 * Perform the same GET on {@link #THREADS} threads started at the same time
+	 */
+	private List<Future<String>> getConcurrently(final String service, final String token) {
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+		for (int i = 0; i < THREADS; i++) {
+			futures.add(executor.submit(new Callable<String>() {
+				public String call() throws Exception {
+					start.await();
+					return client.getJSON(server.getHost(), service, token);
+				}
+			}));
+		}
+		start.countDown();
+		return futures;
+	}
+
+	/**
+	 * @param deadline deadline of the call in ms, null if none
+	 */
+	private Future<String> getAsync(final String service, final String token, final Long deadline) {
+		return executor.submit(new Callable<String>() {
+			public String call() throws Exception {
+				Deadline d = deadline == null ? null : Deadline.start(deadline);
+				try {
+					return client.getJSON(server.getHost(), service, token);
+				} finally {
+					if (d != null) {
+						d.end();
+					}
+				}
+			}
+		});
+	}
+}
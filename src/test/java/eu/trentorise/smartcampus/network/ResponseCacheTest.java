@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class ResponseCacheTest {
+
+	private LocalServer server;
+	private ResponseCache cache;
+	private RemoteClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalServer();
+		server.handle("/fresh", new Cacheable("max-age=60"));
+		server.handle("/other", new Cacheable("max-age=60"));
+		server.handle("/third", new Cacheable("max-age=60"));
+		server.handle("/nostore", new Cacheable("no-store"));
+		server.handle("/validated", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+				exchange.getResponseHeaders().set("ETag", "\"v1\"");
+				if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					LocalServer.send(exchange, 304, new byte[0]);
+				} else {
+					LocalServer.send(exchange, 200, "[1]".getBytes("UTF-8"));
+				}
+			}
+		});
+		cache = new ResponseCache(2, 1000);
+		client = new RemoteClient.Builder().setResponseCache(cache).build();
+	}
+
+	@After
+	public void tearDown() {
+		client.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void freshResponseIsServedFromCache() throws Exception {
+		assertEquals("[\"/fresh\"]", client.getJSON(server.getHost(), "/fresh", null));
+		assertEquals("[\"/fresh\"]", client.getJSON(server.getHost(), "/fresh", null));
+		assertEquals(1, server.getHits("/fresh"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void staleResponseIsRevalidated() throws Exception {
+		assertEquals("[1]", client.getJSON(server.getHost(), "/validated", null));
+		assertEquals("[1]", client.getJSON(server.getHost(), "/validated", null));
+		assertEquals(2, server.getHits("/validated"));
+		assertEquals(1, cache.getRevalidationCount());
+		assertEquals(0, cache.getHitCount());
+	}
+
+	@Test
+	public void staleResponseIsServedWhileRevalidated() throws Exception {
+		cache.setStaleWhileRevalidate(60000);
+		assertEquals("[1]", client.getJSON(server.getHost(), "/validated", null));
+		assertEquals("[1]", client.getJSON(server.getHost(), "/validated", null));
+		assertEquals(1, cache.getStaleHitCount());
+		// revalidated in background
+		for (int i = 0; i < 100 && cache.getRevalidationCount() == 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(1, cache.getRevalidationCount());
+		assertEquals(2, server.getHits("/validated"));
+	}
+
+	@Test
+	public void noStoreResponseIsNotCached() throws Exception {
+		client.getJSON(server.getHost(), "/nostore", null);
+		client.getJSON(server.getHost(), "/nostore", null);
+		assertEquals(2, server.getHits("/nostore"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() throws Exception {
+		client.getJSON(server.getHost(), "/fresh", null);
+		client.getJSON(server.getHost(), "/other", null);
+		client.getJSON(server.getHost(), "/fresh", null);
+		client.getJSON(server.getHost(), "/third", null);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		client.getJSON(server.getHost(), "/fresh", null);
+		client.getJSON(server.getHost(), "/other", null);
+		assertEquals(1, server.getHits("/fresh"));
+		assertEquals(2, server.getHits("/other"));
+	}
+
+	@Test
+	public void responsesAreCachedPerToken() throws Exception {
+		client.getJSON(server.getHost(), "/fresh", "token1");
+		client.getJSON(server.getHost(), "/fresh", "token2");
+		client.getJSON(server.getHost(), "/fresh", "token1");
+		assertEquals(2, server.getHits("/fresh"));
+	}
+
+	/**
+	 * Answers with the request path and the given cache control.
+	 */
+	private static class Cacheable implements HttpHandler {
+		private final String cacheControl;
+
+		Cacheable(String cacheControl) {
+			this.cacheControl = cacheControl;
+		}
+
+		public void handle(HttpExchange exchange) throws IOException {
+			exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+			LocalServer.send(exchange, 200, ("[\"" + exchange.getRequestURI().getPath() + "\"]").getBytes("UTF-8"));
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+	private LocalServer server;
+	private RetryPolicy policy;
+	private RemoteClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalServer();
+		policy = new RetryPolicy();
+		policy.setBackoff(0, 0);
+		client = new RemoteClient.Builder().setRetryPolicy(policy).build();
+	}
+
+	@After
+	public void tearDown() {
+		client.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void retriesAreLimitedByBudget() throws Exception {
+		policy.setMaxRetries(10);
+		policy.setRetryBudget(0.5, 2);
+		assertTrue(policy.retry(0, null));
+		assertTrue(policy.retry(1, null));
+		assertFalse(policy.retry(2, null));
+		assertEquals(2, policy.getRetryCount());
+		assertEquals(1, policy.getBudgetExhaustedCount());
+
+		// each call adds half a retry to the budget
+		policy.acquire(new HttpGet(server.getHost() + "/a"));
+		assertFalse(policy.retry(0, null));
+		policy.acquire(new HttpGet(server.getHost() + "/a"));
+		assertTrue(policy.retry(0, null));
+		assertEquals(3, policy.getRetryCount());
+	}
+
+	@Test
+	public void retriesAreLimitedByMaxRetries() throws Exception {
+		assertTrue(policy.retry(1, null));
+		assertFalse(policy.retry(2, null));
+		assertEquals(1, policy.getRetryCount());
+	}
+
+	@Test
+	public void retryIsSkippedIfBackoffExceedsDeadline() throws Exception {
+		policy.setBackoff(1000, 1000);
+		Deadline deadline = Deadline.start(100);
+		try {
+			assertFalse(policy.retry(0, deadline));
+		} finally {
+			deadline.end();
+		}
+		assertEquals(0, policy.getRetryCount());
+		assertEquals(0, policy.getBudgetExhaustedCount());
+	}
+
+	@Test
+	public void postIsRetriedOnlyIfEnabled() {
+		assertTrue(policy.isRetryable(new HttpGet(server.getHost() + "/a")));
+		assertFalse(policy.isRetryable(new HttpPost(server.getHost() + "/a")));
+		policy.setRetryPost(true);
+		assertTrue(policy.isRetryable(new HttpPost(server.getHost() + "/a")));
+	}
+
+	@Test
+	public void failedCallsAreRetried() throws Exception {
+		server.respond("/fail", 503, "");
+		try {
+			client.getJSON(server.getHost(), "/fail", null);
+			fail();
+		} catch (RemoteException e) {
+			assertEquals(3, server.getHits("/fail"));
+			assertEquals(2, policy.getRetryCount());
+		}
+	}
+
+	@Test
+	public void openCircuitRejectsCalls() throws Exception {
+		policy.setMaxRetries(0);
+		policy.setCircuitBreaker(2, 10000);
+		server.respond("/fail", 503, "");
+		for (int i = 0; i < 2; i++) {
+			try {
+				client.getJSON(server.getHost(), "/fail", null);
+				fail();
+			} catch (RemoteException e) {
+			}
+		}
+		try {
+			client.getJSON(server.getHost(), "/fail", null);
+			fail();
+		} catch (CircuitOpenException e) {
+			assertEquals(2, server.getHits("/fail"));
+			assertEquals(1, policy.getRejectedCount());
+		}
+	}
+
+	@Test
+	public void probeFailedWithRuntimeExceptionIsReleased() throws Exception {
+		policy.setMaxRetries(0);
+		policy.setCircuitBreaker(1, 50);
+		server.respond("/fail", 503, "");
+		server.respond("/list", 200, "[1,2,3]");
+		try {
+			client.getJSON(server.getHost(), "/fail", null);
+			fail();
+		} catch (RemoteException e) {
+		}
+		Thread.sleep(60);
+		try {
+			client.getJSONStream(server.getHost(), "/list", null, null, Integer.class, new JsonUtils.ObjectHandler<Integer>() {
+				public boolean handle(Integer object) {
+					throw new IllegalStateException();
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals("[1,2,3]", client.getJSON(server.getHost(), "/list", null));
+		assertEquals(CircuitBreaker.State.CLOSED, policy.getCircuitBreaker(RemoteConnector.hostOf(
+				new HttpGet(server.getHost()).getURI())).getState());
+	}
+
+	@Test
+	public void failuresWithLargeBodyAreRetried() throws Exception {
+		server.respond("/fail", 503, largeBody());
+		try {
+			client.getJSON(server.getHost(), "/fail", null);
+			fail();
+		} catch (HttpStatusException e) {
+			assertEquals(503, e.getStatus());
+		}
+		assertEquals(3, server.getHits("/fail"));
+		assertEquals(2, policy.getRetryCount());
+	}
+
+	@Test
+	public void failuresWithLargeBodyOpenCircuit() throws Exception {
+		policy.setMaxRetries(0);
+		policy.setCircuitBreaker(2, 10000);
+		server.respond("/fail", 503, largeBody());
+		for (int i = 0; i < 2; i++) {
+			try {
+				client.getJSON(server.getHost(), "/fail", null);
+				fail();
+			} catch (HttpStatusException e) {
+			}
+		}
+		try {
+			client.getJSON(server.getHost(), "/fail", null);
+			fail();
+		} catch (CircuitOpenException e) {
+			assertEquals(2, server.getHits("/fail"));
+		}
+	}
+
+	/**
+	 * @return error body longer than {@link RemoteConnector#HTTP_ERROR_BODY_MAX}
+	 */
+	static String largeBody() {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() <= RemoteConnector.HTTP_ERROR_BODY_MAX * 2) {
+			sb.append("<p>Service unavailable</p>");
+		}
+		return sb.toString();
+	}
+}
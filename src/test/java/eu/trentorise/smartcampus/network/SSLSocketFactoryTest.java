@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.network.RemoteConnector.CLIENT_TYPE;
+
+public class SSLSocketFactoryTest {
+
+	private SSLServerSocket server;
+
+	@Before
+	public void setUp() throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		InputStream in = getClass().getResourceAsStream("/localhost.jks");
+		try {
+			keyStore.load(in, "changeit".toCharArray());
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keyStore, "changeit".toCharArray());
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagers.getKeyManagers(), null, null);
+		server = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+		Thread acceptor = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						final SSLSocket socket = (SSLSocket) server.accept();
+						new Thread() {
+							@Override
+							public void run() {
+								try {
+									socket.startHandshake();
+									while (socket.getInputStream().read() >= 0) {
+									}
+								} catch (IOException e) {
+									// closed by the client
+								} finally {
+									try {
+										socket.close();
+									} catch (IOException e) {
+									}
+								}
+							}
+						}.start();
+					}
+				} catch (IOException e) {
+					// server closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	@Test
+	public void layeredSocketIsVerified() throws Exception {
+		SSLSocketFactory factory = RemoteConnector.getSSLSocketFactory(CLIENT_TYPE.CLIENT_WILDCARD);
+		Socket tunnel = new Socket("127.0.0.1", server.getLocalPort());
+		try {
+			factory.createSocket(tunnel, "example.org", server.getLocalPort(), true);
+			fail();
+		} catch (SSLException e) {
+			// certificate of localhost
+		} finally {
+			tunnel.close();
+		}
+	}
+
+	@Test
+	public void layeredSocketHandshakeIsCounted() throws Exception {
+		SSLSocketFactory factory = RemoteConnector.getSSLSocketFactory(CLIENT_TYPE.CLIENT_WILDCARD);
+		long handshakes = RemoteConnector.getTlsHandshakeCount() + RemoteConnector.getTlsResumedCount();
+		Socket tunnel = new Socket("127.0.0.1", server.getLocalPort());
+		Socket socket = factory.createSocket(tunnel, "localhost", server.getLocalPort(), true);
+		try {
+			assertEquals(handshakes + 1, RemoteConnector.getTlsHandshakeCount() + RemoteConnector.getTlsResumedCount());
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class TokenManagerTest {
+
+	/**
+	 * Provider of the tokens t1, t2, ... valid for the specified time
+	 */
+	private static class CountingProvider implements TokenProvider {
+		private final AtomicInteger count = new AtomicInteger();
+		private final long validity;
+		private final long delay;
+
+		CountingProvider(long validity, long delay) {
+			this.validity = validity;
+			this.delay = delay;
+		}
+
+		public AccessToken fetchToken() throws SecurityException, RemoteException {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				throw new RemoteException(e.getMessage(), e);
+			}
+			return new AccessToken("t" + count.incrementAndGet(), validity == 0 ? 0 : System.currentTimeMillis() + validity);
+		}
+	}
+
+	@Test
+	public void tokenIsCachedUntilExpiring() throws Exception {
+		TokenManager manager = new TokenManager(new CountingProvider(0, 0));
+		assertEquals("t1", manager.getToken());
+		assertSame(manager.getHeader(), manager.getHeader());
+		assertEquals(1, manager.getRefreshCount());
+		manager.invalidate();
+		assertEquals("t2", manager.getToken());
+	}
+
+	@Test
+	public void concurrentRefreshesAreCoalesced() throws Exception {
+		final TokenManager manager = new TokenManager(new CountingProvider(0, 100));
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 5; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						manager.getToken();
+					} catch (RemoteException e) {
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, manager.getRefreshCount());
+	}
+
+	@Test(timeout = 5000)
+	public void expiredTokenDoesNotWaitForQueuedRefresh() throws Exception {
+		TokenManager manager = new TokenManager(new CountingProvider(300, 0));
+		manager.setRefreshMargin(60 * 1000);
+		final CountDownLatch busy = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			assertEquals("t1", manager.getToken());
+			AsyncRemoteConnector.setExecutor(executor);
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						busy.await();
+					} catch (InterruptedException e) {
+					}
+				}
+			});
+			// expiring: refreshed in background, queued behind the busy task
+			assertEquals("t1", manager.getToken());
+			Thread.sleep(400);
+			assertEquals("t2", manager.getToken());
+		} finally {
+			busy.countDown();
+			AsyncRemoteConnector.setExecutor(null);
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void rejectedTokenIsRefreshed() throws Exception {
+		assertRefreshedOn401("");
+	}
+
+	@Test
+	public void rejectedTokenWithLargeBodyIsRefreshed() throws Exception {
+		assertRefreshedOn401(RetryPolicyTest.largeBody());
+	}
+
+	private void assertRefreshedOn401(final String errorBody) throws Exception {
+		LocalServer server = new LocalServer();
+		server.handle("/data", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				boolean valid = "Bearer t2".equals(exchange.getRequestHeaders().getFirst("Authorization"));
+				LocalServer.send(exchange, valid ? 200 : 401, (valid ? "{}" : errorBody).getBytes());
+			}
+		});
+		TokenManager manager = new TokenManager(new CountingProvider(0, 0));
+		RemoteClient client = new RemoteClient.Builder().setTokenManager(manager).build();
+		try {
+			assertEquals("{}", client.getJSON(server.getHost(), "/data", null));
+			assertEquals(2, server.getHits("/data"));
+			assertEquals("t2", manager.getToken());
+		} finally {
+			client.shutdown();
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class URLBuilderTest {
+
+	@Test
+	public void encodesAsURLEncoder() throws Exception {
+		String[] values = { "", "plain", "a b  c", "*-._~", "!\"#$%&'()+,/:;<=>?@[\\]^`{|}", "\u00e0\u00e8\u00ec\u00f2\u00f9 \u20ac", 
+				"\ud83d\ude00 smile", "a\ud83d\ude00\u00e9b", "\u65e5\u672c\u8a9e", "100%", "a+b=c&d", "lone \ud83d surrogate" };
+		for (String value : values) {
+			assertEquals(value, URLEncoder.encode(value, "UTF-8"), URLBuilder.encode(value));
+		}
+	}
+
+	@Test
+	public void encodesRandomStringsAsURLEncoder() throws Exception {
+		Random random = new Random(42);
+		for (int n = 0; n < 1000; n++) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = random.nextInt(20); i > 0; i--) {
+				switch (random.nextInt(4)) {
+				case 0:
+					sb.append((char) random.nextInt(0x80));
+					break;
+				case 1:
+					sb.append((char) (0x80 + random.nextInt(0x780)));
+					break;
+				case 2:
+					sb.append((char) (0x800 + random.nextInt(0xD000)));
+					break;
+				default:
+					sb.appendCodePoint(0x10000 + random.nextInt(0x100000));
+				}
+			}
+			String value = sb.toString();
+			assertEquals(value, URLEncoder.encode(value, "UTF-8"), URLBuilder.encode(value));
+		}
+	}
+
+	@Test
+	public void queryStringRepeatsListValues() {
+		Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+		parameters.put("q", "a b");
+		parameters.put("id", Arrays.asList(1, 2));
+		parameters.put("empty", null);
+		assertEquals("?q=a+b&id=1&id=2&empty=", URLBuilder.queryString(parameters));
+		assertEquals("", URLBuilder.queryString(null));
+	}
+
+	@Test
+	public void buildEscapesPath() throws Exception {
+		Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+		parameters.put("name", "x&y");
+		assertEquals("http://host:8080/a%20b/c?name=x%26y", 
+				URLBuilder.build("http://host:8080", "/a b/c", parameters).toString());
+		assertEquals("http://host/a", URLBuilder.build("http://host", "/a", null).toString());
+	}
+}
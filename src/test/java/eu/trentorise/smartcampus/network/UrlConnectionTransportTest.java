@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class UrlConnectionTransportTest {
+
+	private LocalServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalServer();
+		server.respond("/list", 200, "[1,2,3]");
+		server.respond("/missing", 404, "{\"error\":\"missing\"}");
+		server.handle("/echo", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				InputStream in = exchange.getRequestBody();
+				int b;
+				while ((b = in.read()) >= 0) {
+					body.write(b);
+				}
+				LocalServer.send(exchange, 200, body.toByteArray());
+			}
+		});
+		server.handle("/largeError", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(400, 0);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(new byte[5000]);
+					out.flush();
+					for (int i = 0; i < 200; i++) {
+						out.write(new byte[100]);
+						out.flush();
+						Thread.sleep(10);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (IOException e) {
+					// client gone
+				}
+			}
+		});
+		RemoteConnector.setTransport(new UrlConnectionTransport());
+	}
+
+	@After
+	public void tearDown() {
+		RemoteConnector.setTransport(null);
+		server.stop();
+	}
+
+	@Test
+	public void bodyIsSentAndReceived() throws Exception {
+		assertEquals("[1,2,3]", RemoteConnector.getJSON(server.getHost(), "/list", null));
+		assertEquals("{\"a\":1}", RemoteConnector.postJSON(server.getHost(), "/echo", "{\"a\":1}", null));
+	}
+
+	@Test
+	public void errorStatusIsReported() throws Exception {
+		try {
+			RemoteConnector.getJSON(server.getHost(), "/missing", null);
+			fail();
+		} catch (HttpStatusException e) {
+			assertEquals(404, e.getStatus());
+			assertEquals("{\"error\":\"missing\"}", e.getErrorBody());
+		}
+	}
+
+	@Test
+	public void truncatedErrorBodyIsNotDownloaded() throws Exception {
+		long start = System.currentTimeMillis();
+		try {
+			RemoteConnector.getJSON(server.getHost(), "/largeError", null);
+			fail();
+		} catch (HttpStatusException e) {
+			assertEquals(400, e.getStatus());
+		}
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals("[1,2,3]", RemoteConnector.getJSON(server.getHost(), "/list", null));
+	}
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpParams;
+
+import eu.trentorise.smartcampus.network.RemoteConnector.CLIENT_TYPE;
+
+/**
+ * {@link Transport} based on the {@link HttpClient} of the JDK 11 or later, using HTTP/2 with the 
+ * servers supporting it and HTTP/1.1 with the others. A client is created for each {@link CLIENT_TYPE}, 
+ * sharing its connections among all the calls.
+ * <p>
+ * The JDK client has a connect timeout per client only: the connect and read timeouts of a request 
+ * together limit the wait for the response headers, while the body is read without timeout. 
+ * The host names are always verified by the JDK, that accepts the wildcard certificates: 
+ * {@link CLIENT_TYPE#CLIENT_ACCEPTALL} trusts all the certificates but not the ones of other hosts.
+ */
+public class JdkHttpTransport implements Transport {
+
+	/** headers managed by the JDK client, that cannot be set on a request */
+	private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+	private static final HttpVersion HTTP_2 = new HttpVersion(2, 0);
+
+	private final Map<CLIENT_TYPE, HttpClient> clients = new EnumMap<CLIENT_TYPE, HttpClient>(CLIENT_TYPE.class);
+
+	public HttpResponse execute(HttpUriRequest request) throws IOException {
+		if (request.isAborted()) {
+			throw new IOException("Request aborted");
+		}
+		HttpParams params = request.getParams();
+		Object param = params.getParameter(RemoteClient.CLIENT_TYPE_PARAM);
+		CLIENT_TYPE type = param != null ? (CLIENT_TYPE) param : RemoteConnector.getClientType();
+		int connect = params.getIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, RemoteConnector.HTTP_REQUEST_TIMEOUT_MS);
+		int read = params.getIntParameter(CoreConnectionPNames.SO_TIMEOUT, RemoteConnector.HTTP_REQUEST_TIMEOUT_MS);
+
+		HttpRequest.Builder builder = HttpRequest.newBuilder(request.getURI());
+		if (connect > 0 && read > 0) {
+			builder.timeout(Duration.ofMillis((long) connect + read));
+		}
+		for (Header header : request.getAllHeaders()) {
+			if (!RESTRICTED_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT))) {
+				builder.header(header.getName(), header.getValue());
+			}
+		}
+		HttpEntity body = request instanceof HttpEntityEnclosingRequest ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+		builder.method(request.getMethod(), body == null ? HttpRequest.BodyPublishers.noBody() : publish(builder, body));
+
+		Exchange exchange = new Exchange();
+		exchange.response = getClient(type).sendAsync(builder.build(), exchange);
+		if (request instanceof AbortableHttpRequest) {
+			try {
+				((AbortableHttpRequest) request).setReleaseTrigger(exchange);
+			} catch (IOException e) {
+				exchange.abortConnection();
+				throw e;
+			}
+		}
+		java.net.http.HttpResponse<InputStream> response;
+		try {
+			response = exchange.response.get();
+		} catch (InterruptedException e) {
+			exchange.abortConnection();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (CancellationException e) {
+			throw new IOException("Request aborted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+
+		int status = response.statusCode();
+		BasicHttpResponse resp = new BasicHttpResponse(new BasicStatusLine(
+				response.version() == HttpClient.Version.HTTP_2 ? HTTP_2 : HttpVersion.HTTP_1_1, status, 
+				EnglishReasonPhraseCatalog.INSTANCE.getReason(status, Locale.ENGLISH)));
+		for (Map.Entry<String, List<String>> field : response.headers().map().entrySet()) {
+			// HTTP/2 pseudo headers
+			if (!field.getKey().startsWith(":")) {
+				for (String value : field.getValue()) {
+					resp.addHeader(field.getKey(), value);
+				}
+			}
+		}
+		BasicHttpEntity entity = new ExchangeEntity(exchange);
+		entity.setContent(response.body());
+		entity.setContentLength(response.headers().firstValueAsLong("Content-Length").orElse(-1));
+		entity.setContentType(response.headers().firstValue("Content-Type").orElse(null));
+		entity.setContentEncoding(response.headers().firstValue("Content-Encoding").orElse(null));
+		resp.setEntity(DecompressingEntity.wrap(entity));
+		return resp;
+	}
+
+	/**
+	 * @return the body of the request, buffered to be sent with its length
+	 */
+	private static HttpRequest.BodyPublisher publish(HttpRequest.Builder builder, HttpEntity body) throws IOException {
+		if (body.getContentType() != null) {
+			builder.setHeader(body.getContentType().getName(), body.getContentType().getValue());
+		}
+		if (body.getContentEncoding() != null) {
+			builder.setHeader(body.getContentEncoding().getName(), body.getContentEncoding().getValue());
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		body.writeTo(buffer);
+		return HttpRequest.BodyPublishers.ofByteArray(buffer.toByteArray());
+	}
+
+	private synchronized HttpClient getClient(CLIENT_TYPE type) {
+		HttpClient client = clients.get(type);
+		if (client == null) {
+			client = HttpClient.newBuilder()
+					.sslContext(RemoteConnector.getSSLContext(type))
+					.followRedirects(HttpClient.Redirect.NORMAL)
+					.build();
+			clients.put(type, client);
+		}
+		return client;
+	}
+
+	/**
+	 * Drop the clients: their connections are closed once they are garbage collected, 
+	 * as the JDK client cannot be closed before Java 21.
+	 */
+	public synchronized void shutdown() {
+		clients.clear();
+	}
+
+	/**
+	 * Exchange of a request, receiving the response body as a stream. Aborting the exchange 
+	 * closes the stream, that closes the connection if the body is not completely read.
+	 */
+	private static class Exchange implements BodyHandler<InputStream>, ConnectionReleaseTrigger {
+		private final AtomicReference<InputStream> body = new AtomicReference<InputStream>();
+		private volatile boolean aborted = false;
+		private volatile CompletableFuture<java.net.http.HttpResponse<InputStream>> response;
+
+		public BodySubscriber<InputStream> apply(ResponseInfo info) {
+			BodySubscriber<InputStream> subscriber = BodySubscribers.ofInputStream();
+			subscriber.getBody().thenAccept(in -> {
+				body.set(in);
+				if (aborted) {
+					close(in);
+				}
+			});
+			return subscriber;
+		}
+
+		public void releaseConnection() {
+		}
+
+		public void abortConnection() {
+			aborted = true;
+			CompletableFuture<?> r = response;
+			if (r != null) {
+				r.cancel(true);
+			}
+			InputStream in = body.get();
+			if (in != null) {
+				close(in);
+			}
+		}
+
+		private static void close(InputStream in) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	/**
+	 * Entity of the response body, closing the connection if aborted
+	 */
+	private static class ExchangeEntity extends BasicHttpEntity implements ConnectionReleaseTrigger {
+		private final Exchange exchange;
+
+		ExchangeEntity(Exchange exchange) {
+			this.exchange = exchange;
+		}
+
+		public void releaseConnection() throws IOException {
+			consumeContent();
+		}
+
+		public void abortConnection() {
+			exchange.abortConnection();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class JdkHttpTransportTest {
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private RemoteClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		executor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/echo", exchange -> send(exchange, 200, read(exchange.getRequestBody()), null));
+		server.createContext("/gzip", exchange -> {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			try (OutputStream out = new GZIPOutputStream(buffer)) {
+				out.write("[1,2,3]".getBytes("UTF-8"));
+			}
+			send(exchange, 200, buffer.toByteArray(), "gzip");
+		});
+		server.createContext("/missing", exchange -> send(exchange, 404, "{\"error\":\"missing\"}".getBytes("UTF-8"), null));
+		server.createContext("/slow", exchange -> {
+			try {
+				Thread.sleep(2000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			send(exchange, 200, "[]".getBytes("UTF-8"), null);
+		});
+		server.start();
+		client = new RemoteClient.Builder().setTransport(new JdkHttpTransport()).build();
+	}
+
+	@After
+	public void tearDown() {
+		client.shutdown();
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void bodyIsSentAndReceived() throws Exception {
+		assertEquals("{\"a\":1}", client.postJSON(host(), "/echo", "{\"a\":1}", null));
+	}
+
+	@Test
+	public void gzipResponseIsDecompressed() throws Exception {
+		assertEquals("[1,2,3]", client.getJSON(host(), "/gzip", null));
+	}
+
+	@Test
+	public void errorStatusIsReported() throws Exception {
+		try {
+			client.getJSON(host(), "/missing", null);
+			fail();
+		} catch (HttpStatusException e) {
+			assertEquals(404, e.getStatus());
+			assertEquals("{\"error\":\"missing\"}", e.getErrorBody());
+		}
+	}
+
+	@Test
+	public void callTimeoutAbortsRequest() throws Exception {
+		RemoteClient timed = new RemoteClient.Builder().setTransport(new JdkHttpTransport()).setCallTimeout(200).build();
+		long start = System.currentTimeMillis();
+		try {
+			timed.getJSON(host(), "/slow", null);
+			fail();
+		} catch (RemoteException e) {
+			assertTrue(System.currentTimeMillis() - start < 1500);
+		} finally {
+			timed.shutdown();
+		}
+	}
+
+	private String host() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		in.transferTo(body);
+		return body.toByteArray();
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body, String encoding) throws IOException {
+		read(exchange.getRequestBody());
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		if (encoding != null) {
+			exchange.getResponseHeaders().set("Content-Encoding", encoding);
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}